@@ -0,0 +1,242 @@
+package pers.clare.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * This is an ExecutorService with a queue per thread, tasks of the same key prefer the same thread
+ * to keep the state of the key in the cache of one core.
+ * <p>
+ * The preferred thread is chosen by consistent hash. When its queue has reached the spill threshold, or its
+ * running task has run longer than the spill time, the task spills over to the least loaded thread, so a slow
+ * task does not hold up the tasks of other keys behind it.
+ */
+@SuppressWarnings({"unused"})
+public class AffinityExecutorService extends AbstractExecutorService implements KeyQueueExecutor {
+
+    private static final Runnable SHUTDOWN = () -> {
+    };
+
+    private final Worker[] workers;
+
+    /**
+     * Queued tasks of the preferred thread before spilling over.
+     */
+    private final int spillThreshold;
+
+    /**
+     * Nanoseconds the running task of the preferred thread may run before spilling over, 0 never spills by time.
+     */
+    private final long spillNanos;
+
+    private final CountDownLatch terminated;
+
+    private volatile boolean shutdown;
+
+    /**
+     * Set by shutdownNow, workers keep the interrupt of a task only after it.
+     */
+    private volatile boolean stopped;
+
+    public AffinityExecutorService() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public AffinityExecutorService(int threads) {
+        this(threads, 16);
+    }
+
+    public AffinityExecutorService(int threads, int spillThreshold) {
+        this(threads, spillThreshold, 1, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param threads        Worker threads.
+     * @param spillThreshold Queued tasks of the preferred thread before spilling over.
+     * @param spillTime      Time the running task of the preferred thread may run before spilling over, 0 never spills by time.
+     * @param unit           Unit of spillTime.
+     */
+    public AffinityExecutorService(int threads, int spillThreshold, long spillTime, TimeUnit unit) {
+        if (threads <= 0) throw new IllegalArgumentException("threads must be greater than 0.");
+        this.spillThreshold = spillThreshold > 0 ? spillThreshold : 1;
+        this.spillNanos = Math.max(0, unit.toNanos(spillTime));
+        this.workers = new Worker[threads];
+        this.terminated = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker("fair-affinity-" + i);
+        }
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+    }
+
+    public int getThreads() {
+        return workers.length;
+    }
+
+    public int getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    public long getSpillTime(TimeUnit unit) {
+        return unit.convert(spillNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void execute(int hash, Runnable command) {
+        if (command == null) throw new NullPointerException();
+        Worker worker = workers[preferred(hash, workers.length)];
+        if (worker.queue.size() >= spillThreshold || worker.isStuck(System.nanoTime())) {
+            worker = shortest();
+        }
+        worker.put(command);
+    }
+
+    /**
+     * Tasks without key go to the thread with the shortest queue.
+     *
+     * @param command Task.
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) throw new NullPointerException();
+        shortest().put(command);
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (this) {
+            if (shutdown) return;
+            shutdown = true;
+        }
+        for (Worker worker : workers) {
+            worker.queue.add(SHUTDOWN);
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        stopped = true;
+        shutdown();
+        List<Runnable> tasks = new ArrayList<>();
+        for (Worker worker : workers) {
+            worker.queue.drainTo(tasks);
+            worker.queue.add(SHUTDOWN);
+            worker.thread.interrupt();
+        }
+        tasks.removeIf((task) -> task == SHUTDOWN);
+        return tasks;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    /**
+     * @return Idle thread, or the thread with the fewest tasks queued and running, stuck threads last.
+     */
+    private Worker shortest() {
+        long now = System.nanoTime();
+        Worker result = null;
+        long load = Long.MAX_VALUE;
+        for (int i = 0; i < workers.length && load > 0; i++) {
+            Worker worker = workers[i];
+            long l = worker.queue.size() + (worker.startTime != 0 ? 1L : 0L) + (worker.isStuck(now) ? Integer.MAX_VALUE : 0L);
+            if (l < load) {
+                load = l;
+                result = worker;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Jump consistent hash, so most keys keep their thread when the thread count changes.
+     */
+    static int preferred(int hash, int buckets) {
+        long key = hash * 0x9E3779B97F4A7C15L;
+        long b = -1;
+        long j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+
+    private class Worker implements Runnable {
+        private final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+        private final Thread thread;
+        /**
+         * System.nanoTime when the running task started, 0 when idle.
+         */
+        private volatile long startTime;
+
+        Worker(String name) {
+            this.thread = new Thread(this, name);
+        }
+
+        void put(Runnable command) {
+            if (shutdown) throw new RejectedExecutionException("executor has been shut down.");
+            queue.add(command);
+            // Shut down while adding, take the task back unless a worker or shutdownNow already took it.
+            if (shutdown && queue.remove(command)) {
+                throw new RejectedExecutionException("executor has been shut down.");
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                Runnable command;
+                while ((command = queue.take()) != SHUTDOWN) {
+                    run(command);
+                }
+                // Tasks put while shutting down.
+                while ((command = queue.poll()) != null) {
+                    if (command != SHUTDOWN) run(command);
+                }
+            } catch (InterruptedException ignored) {
+                // shutdownNow
+            } finally {
+                terminated.countDown();
+            }
+        }
+
+        /**
+         * The running task has run longer than the spill time.
+         */
+        boolean isStuck(long now) {
+            long startTime = this.startTime;
+            return spillNanos > 0 && startTime != 0 && now - startTime > spillNanos;
+        }
+
+        private void run(Runnable command) {
+            try {
+                // 0 is reserved for idle.
+                long now = System.nanoTime();
+                startTime = now == 0 ? 1 : now;
+                command.run();
+            } catch (Throwable e) {
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            } finally {
+                startTime = 0;
+                // An interrupt left by the task must not end the worker.
+                if (!stopped) Thread.interrupted();
+            }
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package pers.clare.concurrent;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This is an ExecuteService that executes the tasks of each key on the node of a cluster that owns it.
+ * <p>
+ * Keys are assigned to the members of the ClusterTransport by consistent hash. Tasks of keys owned by other nodes
+ * are forwarded in batches, in the order they were executed. When membership changes, the unexecuted and unsent
+ * tasks of keys that moved are forwarded to their new owner in order. There is no handoff: tasks of a moved key
+ * already handed to the pool of the old node, or already sent to it, still run there, so the new owner may start
+ * the key while they are running.
+ *
+ * @param <Key> Key type.
+ */
+@SuppressWarnings({"unused", "UnusedReturnValue"})
+public class ClusterFairExecutorService<Key> implements ExecutorService {
+
+    private static final int VIRTUAL_NODES = 128;
+
+    private final FairExecutorService<Key> executorService;
+
+    private final ClusterTransport<Key> transport;
+
+    /**
+     * Tasks of a node sent in one batch.
+     */
+    private final int batchSize;
+
+    /**
+     * Milliseconds a partial batch waits before being sent.
+     */
+    private final long linger;
+
+    private final ConcurrentMap<String, Outbox> outboxMap = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Executing reads the owner and enqueues under the read lock, rebalance swaps the ring and moves the waiting
+     * tasks under the write lock, so no task is put into a local queue or an outbox of a node that no longer owns
+     * the key.
+     * Nothing is sent while holding it.
+     */
+    private final ReentrantReadWriteLock ownerLock = new ReentrantReadWriteLock();
+
+    private volatile ConsistentHash ring;
+
+    public ClusterFairExecutorService(FairExecutorService<Key> executorService, ClusterTransport<Key> transport) {
+        this(executorService, transport, 64, 5);
+    }
+
+    /**
+     * @param executorService Executes the tasks of keys owned by this node.
+     * @param transport       Membership and transport.
+     * @param batchSize       Tasks of a node sent in one batch.
+     * @param linger          Milliseconds a partial batch waits before being sent.
+     */
+    public ClusterFairExecutorService(FairExecutorService<Key> executorService, ClusterTransport<Key> transport, int batchSize, long linger) {
+        this.executorService = Objects.requireNonNull(executorService);
+        this.transport = Objects.requireNonNull(transport);
+        this.batchSize = batchSize > 0 ? batchSize : 1;
+        this.linger = linger > 0 ? linger : 1;
+        this.ring = new ConsistentHash(transport.getMembers(), VIRTUAL_NODES);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "fair-cluster-" + transport.getLocalNode());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::flush, this.linger, this.linger, TimeUnit.MILLISECONDS);
+        transport.listen(new ClusterTransport.Listener<>() {
+            @Override
+            public void receive(List<ClusterTask<Key>> tasks) {
+                for (ClusterTask<Key> task : tasks) {
+                    execute(task.getKey(), task.getCommand());
+                }
+            }
+
+            @Override
+            public void membershipChanged(Set<String> members) {
+                rebalance(members);
+            }
+        });
+    }
+
+    public FairExecutorService<Key> getExecutorService() {
+        return executorService;
+    }
+
+    public ClusterTransport<Key> getTransport() {
+        return transport;
+    }
+
+    /**
+     * @return Node that owns the key, null if there is no member.
+     */
+    public String getOwner(Key key) {
+        return ring.get(key);
+    }
+
+    public boolean isOwner(Key key) {
+        String owner = ring.get(key);
+        return owner == null || owner.equals(transport.getLocalNode());
+    }
+
+    /**
+     * @return Tasks waiting to be forwarded.
+     */
+    public int getForwarding() {
+        int count = 0;
+        for (Outbox outbox : outboxMap.values()) {
+            count += outbox.size.get();
+        }
+        return count;
+    }
+
+    public Future<?> submit(Key key, Runnable task) {
+        return submit(key, task, null);
+    }
+
+    public <T> Future<T> submit(Key key, Runnable task, T result) {
+        if (task == null) throw new NullPointerException();
+        RunnableFuture<T> future = new FutureTask<>(task, result);
+        execute(key, future);
+        return future;
+    }
+
+    public <T> Future<T> submit(Key key, Callable<T> task) {
+        if (task == null) throw new NullPointerException();
+        RunnableFuture<T> future = new FutureTask<>(task);
+        execute(key, future);
+        return future;
+    }
+
+    /**
+     * @param key     Execute on the node that owns the key.
+     * @param command Task.
+     */
+    public void execute(Key key, Runnable command) {
+        if (command == null) throw new NullPointerException();
+        Outbox outbox;
+        try {
+            ownerLock.readLock().lock();
+            outbox = route(key, command);
+        } finally {
+            ownerLock.readLock().unlock();
+        }
+        if (outbox != null && outbox.size.get() >= batchSize) {
+            outbox.flush(true);
+        }
+    }
+
+    /**
+     * Send all waiting batches.
+     */
+    public void flush() {
+        for (Outbox outbox : outboxMap.values()) {
+            outbox.flush(false);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        flush();
+        scheduler.shutdown();
+        executorService.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        scheduler.shutdownNow();
+        List<Runnable> tasks = new ArrayList<>();
+        for (Outbox outbox : outboxMap.values()) {
+            ClusterTask<Key> task;
+            while ((task = outbox.poll()) != null) {
+                tasks.add(task.getCommand());
+            }
+        }
+        tasks.addAll(executorService.shutdownNow());
+        return tasks;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return executorService.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return executorService.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executorService.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task) {
+        return submit((Key) null, task);
+    }
+
+    @Override
+    public <T> Future<T> submit(Runnable task, T result) {
+        return submit(null, task, result);
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+        return submit((Key) null, task);
+    }
+
+    /**
+     * Tasks put in the default queue of this node.
+     *
+     * @param command Task.
+     */
+    @Override
+    public void execute(Runnable command) {
+        execute(null, command);
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) {
+        throw new RejectedExecutionException("invokeAll is not supported.");
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) {
+        throw new RejectedExecutionException("invokeAll is not supported.");
+    }
+
+    @Override
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks) {
+        throw new RejectedExecutionException("invokeAny is not supported.");
+    }
+
+    @Override
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) {
+        throw new RejectedExecutionException("invokeAny is not supported.");
+    }
+
+    /**
+     * Execute locally or enqueue to the outbox of the owner, the caller holds ownerLock.
+     *
+     * @return Outbox of the owner, null if executed locally.
+     */
+    private Outbox route(Key key, Runnable command) {
+        String owner = key == null ? null : ring.get(key);
+        if (owner == null || owner.equals(transport.getLocalNode())) {
+            executorService.execute(key, command);
+            return null;
+        }
+        Outbox outbox = outboxMap.computeIfAbsent(owner, Outbox::new);
+        outbox.add(new ClusterTask<>(key, command));
+        return outbox;
+    }
+
+    /**
+     * Route the unsent tasks of every outbox and the unexecuted tasks of keys that no longer belong to this node
+     * by the new ring, in their order. The tasks of a key only ever wait in one place, the local queue or the outbox
+     * of its owner, so the order of each key is kept.
+     */
+    private void rebalance(Set<String> members) {
+        while (true) {
+            try {
+                ownerLock.writeLock().lock();
+                List<Outbox> outboxes = new ArrayList<>(outboxMap.values());
+                if (tryLock(outboxes)) {
+                    try {
+                        ring = new ConsistentHash(members, VIRTUAL_NODES);
+                        outboxMap.clear();
+                        for (Outbox outbox : outboxes) {
+                            for (ClusterTask<Key> task : outbox.retire()) {
+                                route(task.getKey(), task.getCommand());
+                            }
+                        }
+                        Iterator<QueueState<Key>> iterator = executorService.states();
+                        while (iterator.hasNext()) {
+                            Key key = iterator.next().getKey();
+                            if (key == null || isOwner(key)) continue;
+                            for (Runnable command : executorService.remove(key)) {
+                                route(key, command);
+                            }
+                        }
+                    } finally {
+                        for (Outbox outbox : outboxes) {
+                            outbox.lock.unlock();
+                        }
+                    }
+                    break;
+                }
+            } finally {
+                ownerLock.writeLock().unlock();
+            }
+            // A batch is being sent, let it finish outside ownerLock, the transport may execute back into this node.
+            Thread.yield();
+        }
+        flush();
+    }
+
+    /**
+     * @return false if an outbox is sending, no lock is kept then.
+     */
+    private boolean tryLock(List<Outbox> outboxes) {
+        for (int i = 0; i < outboxes.size(); i++) {
+            if (!outboxes.get(i).lock.tryLock()) {
+                for (int j = 0; j < i; j++) {
+                    outboxes.get(j).lock.unlock();
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private class Outbox {
+        private final String node;
+        private final Queue<ClusterTask<Key>> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        /**
+         * Keeps batches of a node in order.
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+        /**
+         * Batch that failed to send, sent again before the queue, guarded by lock.
+         */
+        private List<ClusterTask<Key>> retry;
+        /**
+         * Replaced by a membership change, its tasks were routed again, guarded by lock.
+         */
+        private boolean retired;
+
+        Outbox(String node) {
+            this.node = node;
+        }
+
+        /**
+         * Only enqueue, the caller flushes after releasing ownerLock.
+         */
+        void add(ClusterTask<Key> task) {
+            queue.add(task);
+            size.incrementAndGet();
+        }
+
+        ClusterTask<Key> poll() {
+            ClusterTask<Key> task = queue.poll();
+            if (task != null) size.decrementAndGet();
+            return task;
+        }
+
+        /**
+         * @param full Only send full batches, the scheduler sends the rest.
+         */
+        void flush(boolean full) {
+            if (!lock.tryLock()) return;
+            try {
+                if (retired) return;
+                if (retry != null && !send(retry)) return;
+                retry = null;
+                while (full ? size.get() >= batchSize : size.get() > 0) {
+                    List<ClusterTask<Key>> tasks = new ArrayList<>(Math.min(size.get(), batchSize));
+                    ClusterTask<Key> task;
+                    while (tasks.size() < batchSize && (task = poll()) != null) {
+                        tasks.add(task);
+                    }
+                    if (tasks.isEmpty()) return;
+                    if (!send(tasks)) {
+                        // Keep the order, send again when the node is reachable or route again when membership changes.
+                        retry = tasks;
+                        return;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean send(List<ClusterTask<Key>> tasks) {
+            try {
+                transport.send(node, tasks);
+                return true;
+            } catch (RuntimeException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Stop sending, the caller holds lock.
+         *
+         * @return Unsent tasks in order, the failed batch first.
+         */
+        List<ClusterTask<Key>> retire() {
+            retired = true;
+            List<ClusterTask<Key>> tasks = retry == null ? new ArrayList<>() : new ArrayList<>(retry);
+            retry = null;
+            ClusterTask<Key> task;
+            while ((task = poll()) != null) {
+                tasks.add(task);
+            }
+            return tasks;
+        }
+    }
+}
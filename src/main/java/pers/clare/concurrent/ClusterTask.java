@@ -0,0 +1,24 @@
+package pers.clare.concurrent;
+
+/**
+ * A task forwarded to the node that owns its key.
+ *
+ * @param <Key> Key type.
+ */
+public class ClusterTask<Key> {
+    private final Key key;
+    private final Runnable command;
+
+    public ClusterTask(Key key, Runnable command) {
+        this.key = key;
+        this.command = command;
+    }
+
+    public Key getKey() {
+        return key;
+    }
+
+    public Runnable getCommand() {
+        return command;
+    }
+}
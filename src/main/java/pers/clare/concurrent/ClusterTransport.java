@@ -0,0 +1,42 @@
+package pers.clare.concurrent;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Membership and transport of a cluster, implement it over the messaging of the application.
+ *
+ * @param <Key> Key type.
+ */
+public interface ClusterTransport<Key> {
+
+    /**
+     * @return Name of this node.
+     */
+    String getLocalNode();
+
+    /**
+     * @return Names of the current members, including this node while it is a member.
+     */
+    Set<String> getMembers();
+
+    /**
+     * Deliver a batch of tasks to a node in order.
+     *
+     * @param node  Name of the target node.
+     * @param tasks Tasks in the order they were executed.
+     */
+    void send(String node, List<ClusterTask<Key>> tasks);
+
+    /**
+     * @param listener Receives batches sent to this node and membership changes.
+     */
+    void listen(Listener<Key> listener);
+
+    interface Listener<Key> {
+
+        void receive(List<ClusterTask<Key>> tasks);
+
+        void membershipChanged(Set<String> members);
+    }
+}
@@ -0,0 +1,46 @@
+package pers.clare.concurrent;
+
+import java.util.*;
+
+/**
+ * Immutable consistent hash ring of node names, with virtual nodes to spread keys evenly.
+ */
+class ConsistentHash {
+
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+
+    private final Set<String> nodes;
+
+    ConsistentHash(Collection<String> nodes, int virtualNodes) {
+        this.nodes = Set.copyOf(nodes);
+        for (String node : this.nodes) {
+            long hash = (long) node.hashCode() << 32;
+            for (int i = 0; i < virtualNodes; i++) {
+                // Names with the same hash collide, the smaller one wins whatever the iteration order of nodes.
+                ring.merge(mix(hash | i), node, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            }
+        }
+    }
+
+    Set<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return Owner node of the key, null if there is no node.
+     */
+    String get(Object key) {
+        if (ring.isEmpty()) return null;
+        Map.Entry<Long, String> entry = ring.ceilingEntry(mix(Objects.hashCode(key)));
+        return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+    }
+
+    /**
+     * SplitMix64 finalizer, spreads String and Integer hashes over the ring.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
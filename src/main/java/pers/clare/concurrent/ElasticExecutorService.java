@@ -0,0 +1,145 @@
+package pers.clare.concurrent;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This is a ThreadPoolExecutor that grows between minThreads and maxThreads by demand,
+ * and shrinks back to minThreads after threads have been idle for keepAliveTime.
+ * <p>
+ * Demand is the count of tasks handed to the pool and not finished yet. A FairExecutorService hands a task to
+ * the pool through {@link KeyQueueExecutor} only for a key queue with backlog and a free slot, and the task leaves
+ * the demand when it hands over, so the demand is the slots of key queues in flight across every FairExecutorService
+ * sharing the pool. A new thread is started only when demand exceeds the threads, so all threads are busy.
+ */
+@SuppressWarnings({"unused"})
+public class ElasticExecutorService extends ThreadPoolExecutor implements KeyQueueExecutor {
+
+    private static final AtomicInteger poolNumber = new AtomicInteger();
+
+    /**
+     * Threads started and not exited, counted without taking the lock of the pool.
+     */
+    private final AtomicInteger threads = new AtomicInteger();
+
+    /**
+     * Tasks executed and not finished yet.
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    public ElasticExecutorService(int minThreads, int maxThreads) {
+        this(minThreads, maxThreads, 60, TimeUnit.SECONDS);
+    }
+
+    public ElasticExecutorService(int minThreads, int maxThreads, long keepAliveTime, TimeUnit unit) {
+        super(minThreads, maxThreads, keepAliveTime, unit, new ElasticQueue());
+        ((ElasticQueue) getQueue()).executorService = this;
+        String prefix = "fair-elastic-" + poolNumber.incrementAndGet() + "-";
+        AtomicInteger threadNumber = new AtomicInteger();
+        setThreadFactory((runnable) -> {
+            threads.incrementAndGet();
+            return new Thread(() -> {
+                try {
+                    runnable.run();
+                } finally {
+                    threads.decrementAndGet();
+                }
+            }, prefix + threadNumber.incrementAndGet());
+        });
+        setRejectedExecutionHandler((runnable, executor) -> {
+            if (executor.isShutdown()) throw new RejectedExecutionException("executor has been shut down.");
+            // Reached maxThreads, wait in the queue.
+            ((ElasticQueue) executor.getQueue()).force(runnable);
+        });
+    }
+
+    /**
+     * @return Tasks handed to the pool and not finished yet.
+     */
+    public int getDemand() {
+        return pending.get();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        pending.incrementAndGet();
+        try {
+            super.execute(command);
+        } catch (RuntimeException e) {
+            pending.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Tasks of a key queue leave the demand by {@link #finish(int)}.
+     */
+    @Override
+    public void execute(int hash, Runnable command) {
+        if (command == null) throw new NullPointerException();
+        pending.incrementAndGet();
+        try {
+            super.execute(new KeyQueueTask(command));
+        } catch (RuntimeException e) {
+            pending.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Count the task out of the demand before it executes the next task of its key,
+     * so handing over does not look like one more busy thread.
+     */
+    @Override
+    public void finish(int hash) {
+        pending.decrementAndGet();
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        if (!(r instanceof KeyQueueTask)) {
+            pending.decrementAndGet();
+        }
+        super.afterExecute(r, t);
+    }
+
+    private boolean isBusy() {
+        int count = threads.get();
+        return count < getMaximumPoolSize() && getDemand() > count;
+    }
+
+    /**
+     * Task of a key queue, it reports its own end.
+     */
+    private static class KeyQueueTask implements Runnable {
+        private final Runnable command;
+
+        KeyQueueTask(Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            command.run();
+        }
+    }
+
+    private static class ElasticQueue extends LinkedBlockingQueue<Runnable> {
+        private static final long serialVersionUID = 1L;
+
+        private transient ElasticExecutorService executorService;
+
+        /**
+         * Refuse while all threads are busy, so the pool starts a new thread instead of queueing.
+         */
+        @Override
+        public boolean offer(Runnable runnable) {
+            if (executorService != null && executorService.isBusy()) return false;
+            return super.offer(runnable);
+        }
+
+        void force(Runnable runnable) {
+            super.offer(runnable);
+        }
+    }
+}
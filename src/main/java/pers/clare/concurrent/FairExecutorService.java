@@ -4,6 +4,7 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 
 /**
  * This is an ExecuteService with multiple queues and fair handling of tasks.
@@ -17,12 +18,27 @@ public class FairExecutorService<Key> implements ExecutorService {
 
     private final ExecutorService executorService;
 
+    /**
+     * The executorService when it takes the hash of the key, null otherwise.
+     */
+    private final KeyQueueExecutor keyQueueExecutor;
+
     /**
      * Tasks that each queue can execute concurrently.
      */
     private final int concurrent;
 
-    private final KeyQueue defaultKeyQueue = this.createQueue(null);
+    /**
+     * Tasks per second that each queue can start, null is unlimited.
+     */
+    private final RateLimit rateLimit;
+
+    /**
+     * Resumes queues parked by the rate limit.
+     */
+    private volatile ScheduledExecutorService scheduler;
+
+    private final KeyQueue defaultKeyQueue;
 
     public FairExecutorService() {
         this(null);
@@ -37,14 +53,36 @@ public class FairExecutorService<Key> implements ExecutorService {
     }
 
     public FairExecutorService(int concurrent, ExecutorService executorService) {
+        this(concurrent, null, executorService);
+    }
+
+    /**
+     * Own an ElasticExecutorService that grows while the key queues keep every thread busy.
+     *
+     * @param concurrent Tasks that each queue can execute concurrently.
+     * @param minThreads Threads kept when idle.
+     * @param maxThreads Maximum threads.
+     */
+    public FairExecutorService(int concurrent, int minThreads, int maxThreads) {
+        this(concurrent, null, new ElasticExecutorService(minThreads, maxThreads));
+    }
+
+    public FairExecutorService(int concurrent, RateLimit rateLimit, ExecutorService executorService) {
         this.concurrent = concurrent > 0 ? concurrent : 1;
+        this.rateLimit = rateLimit;
         this.executorService = Objects.requireNonNullElseGet(executorService, () -> Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
+        this.keyQueueExecutor = this.executorService instanceof KeyQueueExecutor ? (KeyQueueExecutor) this.executorService : null;
+        this.defaultKeyQueue = this.createQueue(null);
     }
 
     public ExecutorService getExecutorService() {
         return executorService;
     }
 
+    public RateLimit getRateLimit() {
+        return rateLimit;
+    }
+
     public KeyQueue getQueue(Key key) {
         if (key == null) {
             return defaultKeyQueue;
@@ -63,8 +101,110 @@ public class FairExecutorService<Key> implements ExecutorService {
         if (queue == null) {
             return new Runnable[0];
         }else{
-            return queue.clear();
+            return queue.clear(true);
+        }
+    }
+
+    /**
+     * Removed KeyQueue.
+     * @param key Key.
+     * @return Return unexecuted tasks.
+     */
+    public Runnable[] remove(Key key) {
+        KeyQueue queue = queueMap.remove(key);
+        if (queue == null) {
+            return new Runnable[0];
+        } else {
+            return queue.clear(true);
+        }
+    }
+
+    /**
+     * Weakly consistent states of the default queue and every key queue, built while iterating.
+     * <p>
+     * No queue is locked and no task is copied, so it is safe to page through millions of keys.
+     */
+    public Iterator<QueueState<Key>> states() {
+        Iterator<Map.Entry<Key, KeyQueue>> iterator = queueMap.entrySet().iterator();
+        return new Iterator<>() {
+            private boolean defaultQueue = true;
+
+            @Override
+            public boolean hasNext() {
+                return defaultQueue || iterator.hasNext();
+            }
+
+            @Override
+            public QueueState<Key> next() {
+                long now = System.currentTimeMillis();
+                if (defaultQueue) {
+                    defaultQueue = false;
+                    return defaultKeyQueue.state(null, now);
+                }
+                Map.Entry<Key, KeyQueue> entry = iterator.next();
+                return entry.getValue().state(entry.getKey(), now);
+            }
+        };
+    }
+
+    /**
+     * Page through {@link #states()} in one traversal, prefer it to offsets for large maps.
+     */
+    public QueueStateCursor<Key> cursor() {
+        return new QueueStateCursor<>(states());
+    }
+
+    /**
+     * A page of {@link #states()}, skipped queues are not inspected.
+     * <p>
+     * Each call walks the map again from the start, and the order may change when the map resizes,
+     * so pages can skip or repeat keys. Use {@link #cursor()} to page through all keys.
+     *
+     * @param offset States to skip.
+     * @param limit  Maximum states to return.
+     */
+    public List<QueueState<Key>> states(int offset, int limit) {
+        List<QueueState<Key>> result = new ArrayList<>(Math.min(Math.max(limit, 0), 1024));
+        if (limit <= 0) return result;
+        long now = System.currentTimeMillis();
+        if (offset <= 0) {
+            result.add(defaultKeyQueue.state(null, now));
+        }
+        Iterator<Map.Entry<Key, KeyQueue>> iterator = queueMap.entrySet().iterator();
+        for (int i = 1; i < offset && iterator.hasNext(); i++) {
+            iterator.next();
+        }
+        while (result.size() < limit && iterator.hasNext()) {
+            Map.Entry<Key, KeyQueue> entry = iterator.next();
+            result.add(entry.getValue().state(entry.getKey(), now));
+        }
+        return result;
+    }
+
+    /**
+     * Top queues that have tasks waiting or in flight.
+     *
+     * @param limit      Maximum states to return.
+     * @param comparator Order of the result, such as {@link QueueState#bySize()} or {@link QueueState#byWaitTime()}.
+     */
+    public List<QueueState<Key>> top(int limit, Comparator<QueueState<Key>> comparator) {
+        if (limit <= 0) return new ArrayList<>();
+        // Keep the smallest of the top at the head, so each state costs O(log limit).
+        PriorityQueue<QueueState<Key>> heap = new PriorityQueue<>(Math.min(limit, 1024) + 1, comparator.reversed());
+        Iterator<QueueState<Key>> iterator = states();
+        while (iterator.hasNext()) {
+            QueueState<Key> state = iterator.next();
+            if (state.getSize() == 0 && state.getCurrent() == 0) continue;
+            if (heap.size() < limit) {
+                heap.add(state);
+            } else if (comparator.compare(state, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(state);
+            }
         }
+        List<QueueState<Key>> result = new ArrayList<>(heap);
+        result.sort(comparator);
+        return result;
     }
 
     public int size(Key key) {
@@ -98,16 +238,21 @@ public class FairExecutorService<Key> implements ExecutorService {
      * @param command Task.
      */
     public void execute(Key key, Runnable command) {
-        getQueue(key).put(command);
+        // A queue removed or reset after it was got refuses the task, put it into the queue that replaced it.
+        while (!getQueue(key).put(command)) {
+            Thread.onSpinWait();
+        }
     }
 
     @Override
     public void shutdown() {
         executorService.shutdown();
+        shutdownScheduler();
     }
 
     @Override
     public List<Runnable> shutdownNow() {
+        shutdownScheduler();
         return executorService.shutdownNow();
     }
 
@@ -180,72 +325,271 @@ public class FairExecutorService<Key> implements ExecutorService {
     }
 
     protected KeyQueue createQueue(Key key) {
-        return new KeyQueue(new ConcurrentLinkedQueue<>());
+        return new KeyQueue(new ConcurrentLinkedQueue<>(), key == null ? concurrent : concurrent(key), Objects.hashCode(key));
+    }
+
+    /**
+     * Tasks that the key queue can execute concurrently, override to weight keys.
+     *
+     * @param key Key.
+     */
+    protected int concurrent(Key key) {
+        return concurrent;
+    }
+
+    private ScheduledExecutorService getScheduler() {
+        ScheduledExecutorService scheduler = this.scheduler;
+        if (scheduler != null) return scheduler;
+        synchronized (this) {
+            if (this.scheduler == null) {
+                this.scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+                    Thread thread = new Thread(runnable, "fair-executor-scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            return this.scheduler;
+        }
+    }
+
+    private synchronized void shutdownScheduler() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Visit the default queue and every key queue.
+     */
+    void forEachQueue(BiConsumer<Key, KeyQueue> consumer) {
+        consumer.accept(null, defaultKeyQueue);
+        queueMap.forEach(consumer);
+    }
+
+    static class QueuedTask {
+        private final Runnable command;
+        private final long enqueueTime;
+
+        QueuedTask(Runnable command, long enqueueTime) {
+            this.command = command;
+            this.enqueueTime = enqueueTime;
+        }
     }
 
     class KeyQueue {
-        private final Queue<Runnable> queue;
+        private final Queue<QueuedTask> queue;
+        /**
+         * Written under lock, so reading the size never walks the queue.
+         */
+        private volatile int size;
         private final ReentrantLock lock = new ReentrantLock();
         private final AtomicInteger current = new AtomicInteger();
-
-        KeyQueue(Queue<Runnable> queue) {
+        /**
+         * Tasks handed to the executorService and not finished yet, including slots parked by the rate limit.
+         */
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile long activeTime = System.currentTimeMillis();
+        /**
+         * Tasks that this queue can execute concurrently.
+         */
+        private final int concurrent;
+        /**
+         * Hash of the key, handed to a KeyQueueExecutor.
+         */
+        private final int hash;
+        /**
+         * Theoretical arrival time of the rate limit, guarded by lock.
+         */
+        private long tat = System.nanoTime();
+        /**
+         * Removed or reset from the queue map, guarded by lock.
+         */
+        private boolean removed;
+
+        KeyQueue(Queue<QueuedTask> queue, int concurrent, int hash) {
             this.queue = queue;
+            this.concurrent = concurrent > 0 ? concurrent : 1;
+            this.hash = hash;
         }
 
         public int size() {
-            return queue.size();
+            return size;
         }
 
         public Runnable[] clear() {
+            return clear(false);
+        }
+
+        /**
+         * @param removed Refuse tasks put after clearing.
+         */
+        private Runnable[] clear(boolean removed) {
             try {
                 lock.lock();
-                Runnable[] tasks = queue.toArray(new Runnable[0]);
-                queue.clear();
-                return tasks;
+                this.removed |= removed;
+                Runnable[] tasks = new Runnable[size];
+                int i = 0;
+                QueuedTask task;
+                while (i < tasks.length && (task = queue.poll()) != null) {
+                    tasks[i++] = task.command;
+                }
+                size = 0;
+                return i == tasks.length ? tasks : Arrays.copyOf(tasks, i);
             } finally {
                 lock.unlock();
             }
         }
 
-        void put(Runnable command) {
+        /**
+         * @return Enqueue time of the head task, or 0 when empty.
+         */
+        long oldestTime() {
+            QueuedTask task = queue.peek();
+            return task == null ? 0 : task.enqueueTime;
+        }
+
+        QueueState<Key> state(Key key, long now) {
+            long oldestTime = oldestTime();
+            return new QueueState<>(key
+                    , size()
+                    , current.get()
+                    , inFlight.get()
+                    , oldestTime == 0 ? 0 : now - oldestTime
+                    , now - activeTime
+                    , concurrent
+            );
+        }
+
+        /**
+         * Return leaked slots and drain again.
+         * <p>
+         * The leak is verified again under lock, where a slot takes its task and enters inFlight at once,
+         * and a finishing task refreshes activeTime before leaving inFlight, so a slot about to be reused is
+         * never idle for the threshold.
+         *
+         * @param threshold Milliseconds that held slots must be idle, greater than 0.
+         */
+        void heal(long threshold) {
+            try {
+                lock.lock();
+                int held = current.get();
+                int running = inFlight.get();
+                if (held > running && System.currentTimeMillis() - activeTime >= threshold) {
+                    current.compareAndSet(held, running);
+                }
+            } finally {
+                lock.unlock();
+            }
+            while (!queue.isEmpty() && hold()) {
+                doRun();
+            }
+        }
+
+        /**
+         * @return false if the queue was removed.
+         */
+        boolean put(Runnable command) {
             boolean run;
             try {
                 lock.lock();
-                queue.add(command);
+                if (removed) return false;
+                long now = System.currentTimeMillis();
+                queue.add(new QueuedTask(command, now));
+                size++;
+                activeTime = now;
                 run = hold();
             } finally {
                 lock.unlock();
             }
             if (run) doRun();
+            return true;
         }
 
         private void doRun() {
             try {
                 if (executorService.isShutdown()) return;
-                Runnable command;
+                QueuedTask task;
+                long delay;
                 try {
                     lock.lock();
-                    command = queue.poll();
-                    if (command == null) {
+                    if (queue.isEmpty()) {
                         release();
                         return;
                     }
+                    delay = acquire();
+                    if (delay > 0) {
+                        task = null;
+                    } else {
+                        task = queue.poll();
+                        size--;
+                    }
+                    // Enter inFlight under lock, so heal never sees the slot empty-handed.
+                    inFlight.incrementAndGet();
+                    activeTime = System.currentTimeMillis();
                 } finally {
                     lock.unlock();
                 }
-                executorService.execute(() -> {
-                    try {
-                        command.run();
-                    } finally {
-                        doRun();
+                if (task == null) {
+                    park(delay);
+                    return;
+                }
+                try {
+                    Runnable runnable = () -> {
+                        try {
+                            task.command.run();
+                        } finally {
+                            activeTime = System.currentTimeMillis();
+                            inFlight.decrementAndGet();
+                            if (keyQueueExecutor != null) {
+                                keyQueueExecutor.finish(hash);
+                            }
+                            doRun();
+                        }
+                    };
+                    if (keyQueueExecutor != null) {
+                        keyQueueExecutor.execute(hash, runnable);
+                    } else {
+                        executorService.execute(runnable);
                     }
-                });
+                } catch (Exception e) {
+                    inFlight.decrementAndGet();
+                    throw e;
+                }
             } catch (Exception e) {
                 release();
                 throw e;
             }
         }
 
+        /**
+         * @return Nanoseconds until the rate limit permits, 0 if a permit was taken.
+         */
+        private long acquire() {
+            if (rateLimit == null) return 0;
+            long now = System.nanoTime();
+            long delay = rateLimit.delay(tat, now);
+            if (delay == 0) {
+                tat = rateLimit.next(tat, now);
+            }
+            return delay;
+        }
+
+        /**
+         * Keep the slot and resume on the scheduler, so no worker waits for the permit, the slot is already in inFlight.
+         */
+        private void park(long delay) {
+            try {
+                getScheduler().schedule(() -> {
+                    activeTime = System.currentTimeMillis();
+                    inFlight.decrementAndGet();
+                    doRun();
+                }, delay, TimeUnit.NANOSECONDS);
+            } catch (Exception e) {
+                inFlight.decrementAndGet();
+                throw e;
+            }
+        }
+
         private boolean hold() {
             if (current.incrementAndGet() <= concurrent) {
                 return true;
@@ -0,0 +1,112 @@
+package pers.clare.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches key queues for tasks waiting beyond a threshold and for stalled queues.
+ * <p>
+ * A queue is stalled when its head task has waited beyond the threshold without a slot draining it,
+ * or when it holds slots with no task in flight for longer than the threshold.
+ *
+ * @param <Key> Key type.
+ */
+@SuppressWarnings({"unused", "UnusedReturnValue"})
+public class FairExecutorWatchdog<Key> implements AutoCloseable {
+
+    private final FairExecutorService<Key> executorService;
+
+    /**
+     * Milliseconds.
+     */
+    private final long threshold;
+
+    /**
+     * Return leaked slots and drain stalled queues again.
+     */
+    private final boolean heal;
+
+    private final Consumer<QueueState<Key>> listener;
+
+    private ScheduledExecutorService scheduler;
+
+    public FairExecutorWatchdog(FairExecutorService<Key> executorService, long threshold, Consumer<QueueState<Key>> listener) {
+        this(executorService, threshold, false, listener);
+    }
+
+    /**
+     * @param threshold Milliseconds, greater than 0.
+     */
+    public FairExecutorWatchdog(FairExecutorService<Key> executorService, long threshold, boolean heal, Consumer<QueueState<Key>> listener) {
+        if (threshold <= 0) throw new IllegalArgumentException("threshold must be greater than 0.");
+        this.executorService = Objects.requireNonNull(executorService);
+        this.threshold = threshold;
+        this.heal = heal;
+        this.listener = Objects.requireNonNullElse(listener, (state) -> {
+        });
+    }
+
+    /**
+     * Check periodically on a daemon thread.
+     *
+     * @param period Milliseconds.
+     */
+    public synchronized FairExecutorWatchdog<Key> start(long period) {
+        if (scheduler != null) return this;
+        scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "fair-executor-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                check();
+            } catch (RuntimeException ignored) {
+                // Keep watching when the listener throws.
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    /**
+     * Check all queues once, overlapping checks run one after another so a queue is never healed twice at once.
+     *
+     * @return Queues whose head task has waited beyond the threshold, or that are stalled.
+     */
+    public synchronized List<QueueState<Key>> check() {
+        List<QueueState<Key>> result = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        executorService.forEachQueue((key, queue) -> {
+            QueueState<Key> state = queue.state(key, now);
+            boolean stalled = isStalled(state);
+            if (!stalled && state.getWaitTime() < threshold) return;
+            result.add(state);
+            if (stalled && heal) {
+                try {
+                    queue.heal(threshold);
+                } catch (RuntimeException ignored) {
+                    // The executorService still rejects, try again on the next check.
+                }
+            }
+            listener.accept(state);
+        });
+        return result;
+    }
+
+    public boolean isStalled(QueueState<Key> state) {
+        return (state.isStranded() && state.getWaitTime() >= threshold)
+                || (state.isLeaked() && state.getIdleTime() >= threshold);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler == null) return;
+        scheduler.shutdownNow();
+        scheduler = null;
+    }
+}
@@ -0,0 +1,248 @@
+package pers.clare.concurrent;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Processes elements fairly by key with a FairExecutorService.
+ * <p>
+ * Upstream is requested only as capacity frees up, so elements received and not yet delivered downstream,
+ * whether queued, running or buffered, never exceed capacity. Each key is still limited by the concurrent
+ * of its queue. Results are delivered in completion order, null results are dropped.
+ *
+ * @param <Key> Key type.
+ * @param <T>   Element type.
+ * @param <R>   Result type.
+ */
+@SuppressWarnings({"unused"})
+public class FairProcessor<Key, T, R> implements Flow.Processor<T, R> {
+
+    private final FairExecutorService<Key> executorService;
+
+    private final Function<? super T, ? extends Key> keyFunction;
+
+    private final Function<? super T, ? extends R> function;
+
+    /**
+     * Elements received and not delivered yet.
+     */
+    private final int capacity;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    private final Queue<R> results = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Downstream demand.
+     */
+    private final AtomicLong requested = new AtomicLong();
+
+    /**
+     * Capacity to request from upstream.
+     */
+    private final AtomicLong credits = new AtomicLong();
+
+    /**
+     * Serializes the drain, so the subscription and downstream are never called concurrently.
+     */
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private volatile Flow.Subscription upstream;
+
+    private volatile Flow.Subscriber<? super R> downstream;
+
+    private volatile boolean upstreamDone;
+
+    private volatile boolean cancelled;
+
+    private volatile Throwable error;
+
+    private boolean terminated;
+
+    public FairProcessor(FairExecutorService<Key> executorService, Function<? super T, ? extends Key> keyFunction, Function<? super T, ? extends R> function) {
+        this(executorService, keyFunction, function, Flow.defaultBufferSize());
+    }
+
+    public FairProcessor(FairExecutorService<Key> executorService, Function<? super T, ? extends Key> keyFunction, Function<? super T, ? extends R> function, int capacity) {
+        this.executorService = Objects.requireNonNull(executorService);
+        this.keyFunction = Objects.requireNonNull(keyFunction);
+        this.function = Objects.requireNonNull(function);
+        this.capacity = capacity > 0 ? capacity : 1;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return Elements received and not delivered yet.
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super R> subscriber) {
+        Objects.requireNonNull(subscriber);
+        synchronized (this) {
+            if (downstream == null) {
+                downstream = subscriber;
+                subscriber.onSubscribe(new Subscription());
+                drain();
+                return;
+            }
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        subscriber.onError(new IllegalStateException("Only one subscriber is supported."));
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        Objects.requireNonNull(subscription);
+        synchronized (this) {
+            if (upstream != null || cancelled) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+        }
+        credits.addAndGet(capacity);
+        drain();
+    }
+
+    @Override
+    public void onNext(T item) {
+        Objects.requireNonNull(item);
+        if (upstreamDone || cancelled) return;
+        outstanding.incrementAndGet();
+        try {
+            executorService.execute(keyFunction.apply(item), () -> process(item));
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (upstreamDone) return;
+        upstreamDone = true;
+        fail(Objects.requireNonNull(throwable));
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        drain();
+    }
+
+    private void process(T item) {
+        if (cancelled || error != null) return;
+        try {
+            R result = function.apply(item);
+            if (result == null) {
+                outstanding.decrementAndGet();
+                credits.incrementAndGet();
+            } else {
+                results.offer(result);
+            }
+        } catch (Throwable e) {
+            fail(e);
+            return;
+        }
+        drain();
+    }
+
+    private void fail(Throwable e) {
+        if (error == null) {
+            error = e;
+        }
+        drain();
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) return;
+        int missed = 1;
+        do {
+            Flow.Subscription subscription = upstream;
+            Flow.Subscriber<? super R> subscriber = downstream;
+            if (!terminated) {
+                if (cancelled || error != null) {
+                    results.clear();
+                    if (subscription != null && !upstreamDone) {
+                        upstreamDone = true;
+                        subscription.cancel();
+                    }
+                    // Keep the error for a subscriber that has not arrived yet.
+                    if (cancelled) {
+                        terminated = true;
+                    } else if (subscriber != null) {
+                        terminated = true;
+                        subscriber.onError(error);
+                    }
+                } else if (subscriber != null) {
+                    long r = requested.get();
+                    long e = 0;
+                    R result;
+                    while (e != r && (result = results.poll()) != null) {
+                        subscriber.onNext(result);
+                        e++;
+                    }
+                    if (e > 0) {
+                        if (r != Long.MAX_VALUE) {
+                            requested.addAndGet(-e);
+                        }
+                        outstanding.addAndGet((int) -e);
+                        credits.addAndGet(e);
+                    }
+                    if (upstreamDone && outstanding.get() == 0 && results.isEmpty()) {
+                        terminated = true;
+                        subscriber.onComplete();
+                    }
+                }
+                long n;
+                if (!terminated && !upstreamDone && subscription != null && (n = credits.getAndSet(0)) > 0) {
+                    subscription.request(n);
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private class Subscription implements Flow.Subscription {
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("non-positive subscription request."));
+                return;
+            }
+            long current;
+            long next;
+            do {
+                current = requested.get();
+                if (current == Long.MAX_VALUE) return;
+                next = current + n;
+                if (next < 0) next = Long.MAX_VALUE;
+            } while (!requested.compareAndSet(current, next));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package pers.clare.concurrent;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * This is an ExecuteService with nested fairness, such as tenant, then user, then job.
+ * <p>
+ * A key maps to a path by the levels. Each level is a FairExecutorService whose tasks are executed
+ * in the queue of the parent path, so a heavy user only holds the slots of its own tenant,
+ * and a heavy tenant only holds its own slots of the shared ExecutorService.
+ *
+ * @param <Key> Key type.
+ */
+@SuppressWarnings({"unused", "UnusedReturnValue"})
+public class HierarchicalFairExecutorService<Key> implements ExecutorService {
+
+    private final List<Level<Key, ?>> levels;
+
+    private final Node root;
+
+    public HierarchicalFairExecutorService(List<Level<Key, ?>> levels) {
+        this(levels, null);
+    }
+
+    /**
+     * @param levels          From the top level to the key queue level.
+     * @param executorService Shared ExecutorService.
+     */
+    public HierarchicalFairExecutorService(List<Level<Key, ?>> levels, ExecutorService executorService) {
+        if (levels == null || levels.isEmpty()) throw new IllegalArgumentException("levels must not be empty.");
+        this.levels = List.copyOf(levels);
+        this.root = new Node(0, executorService);
+    }
+
+    public ExecutorService getExecutorService() {
+        return root.executorService.getExecutorService();
+    }
+
+    public int size(Key key) {
+        Node node = find(key);
+        if (node == null) return 0;
+        return node.executorService.size(select(levels.size() - 1, key));
+    }
+
+    /**
+     * Replaced the KeyQueue of the key.
+     *
+     * @param key Key.
+     * @return Return unexecuted tasks.
+     */
+    public Runnable[] reset(Key key) {
+        Node node = find(key);
+        if (node == null) return new Runnable[0];
+        return node.executorService.reset(select(levels.size() - 1, key));
+    }
+
+    public Future<?> submit(Key key, Runnable task) {
+        return submit(key, task, null);
+    }
+
+    public <T> Future<T> submit(Key key, Runnable task, T result) {
+        if (task == null) throw new NullPointerException();
+        RunnableFuture<T> future = new FutureTask<>(task, result);
+        execute(key, future);
+        return future;
+    }
+
+    public <T> Future<T> submit(Key key, Callable<T> task) {
+        if (task == null) throw new NullPointerException();
+        RunnableFuture<T> future = new FutureTask<>(task);
+        execute(key, future);
+        return future;
+    }
+
+    /**
+     * @param key     Create separate queues by the path of key.
+     * @param command Task.
+     */
+    public void execute(Key key, Runnable command) {
+        if (key == null) {
+            root.executorService.execute(command);
+            return;
+        }
+        Node node = root;
+        int last = levels.size() - 1;
+        for (int i = 0; i < last; i++) {
+            node = node.child(select(i, key));
+        }
+        node.executorService.execute(select(last, key), command);
+    }
+
+    @Override
+    public void shutdown() {
+        root.executorService.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return root.executorService.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return root.executorService.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return root.executorService.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return root.executorService.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task) {
+        return submit((Key) null, task);
+    }
+
+    @Override
+    public <T> Future<T> submit(Runnable task, T result) {
+        return submit(null, task, result);
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+        return submit((Key) null, task);
+    }
+
+    /**
+     * Tasks put in the default queue of the top level.
+     *
+     * @param command Task.
+     */
+    @Override
+    public void execute(Runnable command) {
+        execute(null, command);
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) {
+        throw new RejectedExecutionException("invokeAll is not supported.");
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) {
+        throw new RejectedExecutionException("invokeAll is not supported.");
+    }
+
+    @Override
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks) {
+        throw new RejectedExecutionException("invokeAny is not supported.");
+    }
+
+    @Override
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) {
+        throw new RejectedExecutionException("invokeAny is not supported.");
+    }
+
+    private Object select(int depth, Key key) {
+        return Objects.requireNonNull(levels.get(depth).select(key), "level selector must not return null.");
+    }
+
+    /**
+     * @return Node of the key queue, null if it has not been created.
+     */
+    private Node find(Key key) {
+        if (key == null) return null;
+        Node node = root;
+        int last = levels.size() - 1;
+        for (int i = 0; i < last && node != null; i++) {
+            node = node.children.get(select(i, key));
+        }
+        return node;
+    }
+
+    private class Node {
+        private final ConcurrentMap<Object, Node> children = new ConcurrentHashMap<>();
+
+        private final int depth;
+
+        private final FairExecutorService<Object> executorService;
+
+        Node(int depth, ExecutorService parent) {
+            this.depth = depth;
+            Level<Key, ?> level = levels.get(depth);
+            this.executorService = new FairExecutorService<>(level.concurrent, parent) {
+                @Override
+                protected int concurrent(Object key) {
+                    return level.concurrent(key);
+                }
+            };
+        }
+
+        Node child(Object part) {
+            return children.computeIfAbsent(part, (key) -> new Node(depth + 1, new KeyedExecutorService<>(executorService, key)));
+        }
+    }
+
+    /**
+     * A level of the path.
+     *
+     * @param <Key>  Key type.
+     * @param <Part> Path part type of the level.
+     */
+    public static class Level<Key, Part> {
+
+        private final Function<Key, Part> selector;
+
+        /**
+         * Tasks that each queue of the level can execute concurrently.
+         */
+        private final int concurrent;
+
+        /**
+         * Multiplier of concurrent for each queue of the level.
+         */
+        private final ToIntFunction<Part> weight;
+
+        public Level(Function<Key, Part> selector, int concurrent) {
+            this(selector, concurrent, null);
+        }
+
+        public Level(Function<Key, Part> selector, int concurrent, ToIntFunction<Part> weight) {
+            this.selector = Objects.requireNonNull(selector);
+            this.concurrent = concurrent > 0 ? concurrent : 1;
+            this.weight = weight;
+        }
+
+        public int getConcurrent() {
+            return concurrent;
+        }
+
+        Part select(Key key) {
+            return selector.apply(key);
+        }
+
+        @SuppressWarnings("unchecked")
+        int concurrent(Object part) {
+            if (weight == null) return concurrent;
+            return concurrent * Math.max(1, weight.applyAsInt((Part) part));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package pers.clare.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What an idle worker of LowLatencyExecutorService does before the next task arrives.
+ * <p>
+ * Spinning keeps the wakeup cost off the latency of each task at the price of a busy core,
+ * parking frees the core at the price of an unpark.
+ */
+@SuppressWarnings("unused")
+public class IdleStrategy {
+
+    private final int spins;
+
+    private final int yields;
+
+    /**
+     * 0 parks until a task is put.
+     */
+    private final long parkNanos;
+
+    /**
+     * @param spins     Idle rounds that spin.
+     * @param yields    Idle rounds that yield after spinning.
+     * @param parkNanos Nanoseconds to park after yielding, 0 parks until a task is put.
+     */
+    public IdleStrategy(int spins, int yields, long parkNanos) {
+        this.spins = Math.max(0, spins);
+        this.yields = Math.max(0, yields);
+        this.parkNanos = Math.max(0, parkNanos);
+    }
+
+    /**
+     * Never park, a worker keeps a core busy.
+     */
+    public static IdleStrategy busySpin() {
+        return new IdleStrategy(Integer.MAX_VALUE, 0, 0);
+    }
+
+    public static IdleStrategy spinYieldPark() {
+        return new IdleStrategy(1000, 100, TimeUnit.MICROSECONDS.toNanos(100));
+    }
+
+    public static IdleStrategy spinYieldPark(int spins, int yields, long parkNanos) {
+        return new IdleStrategy(spins, yields, parkNanos);
+    }
+
+    /**
+     * Park until a task is put.
+     */
+    public static IdleStrategy blocking() {
+        return new IdleStrategy(0, 0, 0);
+    }
+
+    public int getSpins() {
+        return spins;
+    }
+
+    public int getYields() {
+        return yields;
+    }
+
+    public long getParkNanos() {
+        return parkNanos;
+    }
+
+    /**
+     * Spin or yield for an idle round.
+     *
+     * @param count Consecutive idle rounds.
+     * @return false if the worker should park.
+     */
+    boolean idle(int count) {
+        if (count < spins || spins == Integer.MAX_VALUE) {
+            Thread.onSpinWait();
+            return true;
+        }
+        if (count - spins < yields) {
+            Thread.yield();
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,23 @@
+package pers.clare.concurrent;
+
+import java.util.concurrent.Executor;
+
+/**
+ * An Executor that FairExecutorService hands the tasks of its key queues to with the hash of their key.
+ */
+public interface KeyQueueExecutor extends Executor {
+
+    /**
+     * @param hash    Hash of the key, tasks of the same hash may prefer the same thread.
+     * @param command Task of a key queue, it calls {@link #finish(int)} when done, before it executes the next task of its key.
+     */
+    void execute(int hash, Runnable command);
+
+    /**
+     * A task of execute(int, Runnable) has done its work and is handing over to the next task of its key.
+     *
+     * @param hash Hash of the key.
+     */
+    default void finish(int hash) {
+    }
+}
@@ -0,0 +1,52 @@
+package pers.clare.concurrent;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes tasks in the queue of a fixed key, so a FairExecutorService can be stacked on another one.
+ *
+ * @param <Key> Key type.
+ */
+class KeyedExecutorService<Key> extends AbstractExecutorService {
+
+    private final FairExecutorService<Key> executorService;
+
+    private final Key key;
+
+    KeyedExecutorService(FairExecutorService<Key> executorService, Key key) {
+        this.executorService = executorService;
+        this.key = key;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executorService.execute(key, command);
+    }
+
+    @Override
+    public void shutdown() {
+        executorService.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return executorService.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return executorService.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return executorService.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executorService.awaitTermination(timeout, unit);
+    }
+}
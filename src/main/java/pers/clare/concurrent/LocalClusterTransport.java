@@ -0,0 +1,115 @@
+package pers.clare.concurrent;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * In-process ClusterTransport for tests and benchmarks, nodes of the same Network deliver batches by direct call.
+ *
+ * @param <Key> Key type.
+ */
+@SuppressWarnings({"unused", "UnusedReturnValue"})
+public class LocalClusterTransport<Key> implements ClusterTransport<Key> {
+
+    private final Network<Key> network;
+
+    private final String node;
+
+    private final List<Listener<Key>> listeners = new ArrayList<>();
+
+    /**
+     * Join the network when the first listener is registered, so no batch arrives before it can be received.
+     */
+    public LocalClusterTransport(Network<Key> network, String node) {
+        this.network = Objects.requireNonNull(network);
+        this.node = Objects.requireNonNull(node);
+    }
+
+    @Override
+    public String getLocalNode() {
+        return node;
+    }
+
+    @Override
+    public Set<String> getMembers() {
+        return network.members();
+    }
+
+    @Override
+    public void send(String node, List<ClusterTask<Key>> tasks) {
+        LocalClusterTransport<Key> transport = network.nodeMap.get(node);
+        if (transport == null) throw new RejectedExecutionException(node + " is not a member.");
+        transport.receive(List.copyOf(tasks));
+    }
+
+    @Override
+    public void listen(Listener<Key> listener) {
+        boolean join;
+        synchronized (this) {
+            join = listeners.isEmpty();
+            listeners.add(Objects.requireNonNull(listener));
+        }
+        if (join) network.join(this);
+    }
+
+    /**
+     * Leave the network, the remaining members and this node are notified.
+     */
+    public void leave() {
+        network.leave(this);
+    }
+
+    private void receive(List<ClusterTask<Key>> tasks) {
+        for (Listener<Key> listener : listeners()) {
+            listener.receive(tasks);
+        }
+    }
+
+    private void membershipChanged(Set<String> members) {
+        for (Listener<Key> listener : listeners()) {
+            listener.membershipChanged(members);
+        }
+    }
+
+    private synchronized List<Listener<Key>> listeners() {
+        return new ArrayList<>(listeners);
+    }
+
+    /**
+     * Members of an in-process cluster.
+     *
+     * @param <Key> Key type.
+     */
+    public static class Network<Key> {
+
+        private final ConcurrentMap<String, LocalClusterTransport<Key>> nodeMap = new ConcurrentHashMap<>();
+
+        public Set<String> members() {
+            return Set.copyOf(nodeMap.keySet());
+        }
+
+        private synchronized void join(LocalClusterTransport<Key> transport) {
+            if (nodeMap.putIfAbsent(transport.node, transport) != null) {
+                throw new IllegalArgumentException(transport.node + " is already a member.");
+            }
+            // The new member learns the membership first, so it accepts the backlog that moves to it.
+            Set<String> members = members();
+            transport.membershipChanged(members);
+            for (LocalClusterTransport<Key> member : nodeMap.values()) {
+                if (member != transport) member.membershipChanged(members);
+            }
+        }
+
+        private synchronized void leave(LocalClusterTransport<Key> transport) {
+            if (!nodeMap.remove(transport.node, transport)) return;
+            // The leaving member learns the membership last, so the remaining members accept its backlog.
+            Set<String> members = members();
+            for (LocalClusterTransport<Key> member : nodeMap.values()) {
+                member.membershipChanged(members);
+            }
+            transport.membershipChanged(members);
+        }
+    }
+}
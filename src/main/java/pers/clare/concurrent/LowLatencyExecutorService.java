@@ -0,0 +1,235 @@
+package pers.clare.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This is an ExecutorService for sub-millisecond tasks.
+ * <p>
+ * Tasks are handed to workers through a bounded MPMC ring buffer, and idle workers follow an IdleStrategy
+ * instead of blocking on a lock and condition. Tasks beyond the capacity of the ring buffer overflow to an
+ * unbounded queue, so a FairExecutorService with many keys is never rejected. While the overflow queue has
+ * tasks, new tasks follow them there, so tasks start in the order they were executed.
+ */
+@SuppressWarnings({"unused"})
+public class LowLatencyExecutorService extends AbstractExecutorService {
+
+    private final MpmcRingBuffer<Runnable> ringBuffer;
+
+    private final Queue<Runnable> overflow = new ConcurrentLinkedQueue<>();
+
+    private final IdleStrategy idleStrategy;
+
+    private final Worker[] workers;
+
+    /**
+     * Parked workers, producers only look for one to unpark when it is not 0.
+     */
+    private final AtomicInteger parkedWorkers = new AtomicInteger();
+
+    /**
+     * Producers between checking shutdown and offering, workers only exit when it is 0.
+     */
+    private final AtomicInteger producers = new AtomicInteger();
+
+    private final CountDownLatch terminated;
+
+    private volatile boolean shutdown;
+
+    /**
+     * Set by shutdownNow, workers keep the interrupt of a task only after it.
+     */
+    private volatile boolean stopped;
+
+    public LowLatencyExecutorService() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public LowLatencyExecutorService(int threads) {
+        this(threads, 1024, IdleStrategy.spinYieldPark());
+    }
+
+    public LowLatencyExecutorService(int threads, IdleStrategy idleStrategy) {
+        this(threads, 1024, idleStrategy);
+    }
+
+    /**
+     * @param threads      Worker threads.
+     * @param capacity     Capacity of the ring buffer.
+     * @param idleStrategy What an idle worker does.
+     */
+    public LowLatencyExecutorService(int threads, int capacity, IdleStrategy idleStrategy) {
+        if (threads <= 0) throw new IllegalArgumentException("threads must be greater than 0.");
+        this.ringBuffer = new MpmcRingBuffer<>(capacity);
+        this.idleStrategy = Objects.requireNonNullElseGet(idleStrategy, IdleStrategy::spinYieldPark);
+        this.workers = new Worker[threads];
+        this.terminated = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker("fair-low-latency-" + i);
+        }
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+    }
+
+    public IdleStrategy getIdleStrategy() {
+        return idleStrategy;
+    }
+
+    public int getThreads() {
+        return workers.length;
+    }
+
+    /**
+     * @return Approximate count of tasks waiting for a worker.
+     */
+    public int getQueueSize() {
+        return ringBuffer.size() + overflow.size();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) throw new NullPointerException();
+        producers.incrementAndGet();
+        try {
+            if (shutdown) throw new RejectedExecutionException("executor has been shut down.");
+            if (!overflow.isEmpty() || !ringBuffer.offer(command)) {
+                overflow.offer(command);
+            }
+        } finally {
+            producers.decrementAndGet();
+        }
+        if (parkedWorkers.get() > 0) {
+            unparkOne();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        stopped = true;
+        shutdown();
+        List<Runnable> tasks = new ArrayList<>();
+        Runnable task;
+        while ((task = poll()) != null) {
+            tasks.add(task);
+        }
+        for (Worker worker : workers) {
+            worker.thread.interrupt();
+        }
+        return tasks;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    private Runnable poll() {
+        Runnable task = ringBuffer.poll();
+        return task != null ? task : overflow.poll();
+    }
+
+    private boolean isEmpty() {
+        return ringBuffer.isEmpty() && overflow.isEmpty();
+    }
+
+    private void unparkOne() {
+        for (Worker worker : workers) {
+            if (worker.parked.get() && worker.parked.compareAndSet(true, false)) {
+                parkedWorkers.decrementAndGet();
+                LockSupport.unpark(worker.thread);
+                return;
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
+        private final AtomicBoolean parked = new AtomicBoolean();
+        private final Thread thread;
+
+        Worker(String name) {
+            this.thread = new Thread(this, name);
+        }
+
+        @Override
+        public void run() {
+            try {
+                int idle = 0;
+                while (true) {
+                    Runnable task = poll();
+                    if (task != null) {
+                        idle = 0;
+                        run(task);
+                        continue;
+                    }
+                    if (shutdown) {
+                        if (producers.get() == 0 && isEmpty()) break;
+                        continue;
+                    }
+                    if (idleStrategy.idle(idle)) {
+                        if (idle < Integer.MAX_VALUE) idle++;
+                    } else {
+                        park();
+                    }
+                }
+            } finally {
+                terminated.countDown();
+            }
+        }
+
+        /**
+         * Announce parking before checking the queues again, so a producer either sees the announcement
+         * or this worker sees the task.
+         */
+        private void park() {
+            parked.set(true);
+            parkedWorkers.incrementAndGet();
+            if (isEmpty() && !shutdown) {
+                long parkNanos = idleStrategy.getParkNanos();
+                if (parkNanos > 0) {
+                    LockSupport.parkNanos(this, parkNanos);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+            if (parked.compareAndSet(true, false)) {
+                parkedWorkers.decrementAndGet();
+            }
+        }
+
+        private void run(Runnable task) {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            } finally {
+                // An interrupt left by the task would make every park return at once.
+                if (!stopped) Thread.interrupted();
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package pers.clare.concurrent;
+
+import java.util.Comparator;
+
+/**
+ * Point-in-time state of a key queue.
+ *
+ * @param <Key> Key type.
+ */
+@SuppressWarnings("unused")
+public class QueueState<Key> {
+    private final Key key;
+
+    /**
+     * Unexecuted tasks.
+     */
+    private final int size;
+
+    /**
+     * Slots held by the queue.
+     */
+    private final int current;
+
+    /**
+     * Tasks handed to the executorService and not finished yet.
+     */
+    private final int inFlight;
+
+    /**
+     * Milliseconds the head task has been waiting.
+     */
+    private final long waitTime;
+
+    /**
+     * Milliseconds since the queue last put, dispatched or finished a task.
+     */
+    private final long idleTime;
+
+    /**
+     * Tasks that the queue can execute concurrently.
+     */
+    private final int concurrent;
+
+    QueueState(Key key, int size, int current, int inFlight, long waitTime, long idleTime, int concurrent) {
+        this.key = key;
+        this.size = size;
+        this.current = current;
+        this.inFlight = inFlight;
+        this.waitTime = waitTime;
+        this.idleTime = idleTime;
+        this.concurrent = concurrent;
+    }
+
+    /**
+     * Most unexecuted tasks first.
+     */
+    public static <Key> Comparator<QueueState<Key>> bySize() {
+        return (a, b) -> Integer.compare(b.size, a.size);
+    }
+
+    /**
+     * Longest waiting head task first.
+     */
+    public static <Key> Comparator<QueueState<Key>> byWaitTime() {
+        return (a, b) -> Long.compare(b.waitTime, a.waitTime);
+    }
+
+    public Key getKey() {
+        return key;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getCurrent() {
+        return current;
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    public long getWaitTime() {
+        return waitTime;
+    }
+
+    public long getIdleTime() {
+        return idleTime;
+    }
+
+    public int getConcurrent() {
+        return concurrent;
+    }
+
+    /**
+     * Tasks are waiting but a free slot is not draining them.
+     */
+    public boolean isStranded() {
+        return size > 0 && current < concurrent;
+    }
+
+    /**
+     * Slots are held while no task is in flight.
+     */
+    public boolean isLeaked() {
+        return current > inFlight;
+    }
+
+    @Override
+    public String toString() {
+        return "QueueState{" +
+                "key=" + key +
+                ", size=" + size +
+                ", current=" + current +
+                ", inFlight=" + inFlight +
+                ", waitTime=" + waitTime +
+                ", idleTime=" + idleTime +
+                ", concurrent=" + concurrent +
+                '}';
+    }
+}
@@ -0,0 +1,38 @@
+package pers.clare.concurrent;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Resumable pages of {@link FairExecutorService#states()}.
+ * <p>
+ * One weakly consistent traversal serves every page, so paging through all keys costs one pass, and a key
+ * present for the whole traversal is returned exactly once even if the map resizes in between.
+ *
+ * @param <Key> Key type.
+ */
+public class QueueStateCursor<Key> {
+
+    private final Iterator<QueueState<Key>> iterator;
+
+    QueueStateCursor(Iterator<QueueState<Key>> iterator) {
+        this.iterator = iterator;
+    }
+
+    public boolean hasNext() {
+        return iterator.hasNext();
+    }
+
+    /**
+     * @param limit Maximum states to return.
+     * @return Next page, empty when the traversal is done.
+     */
+    public List<QueueState<Key>> next(int limit) {
+        List<QueueState<Key>> result = new ArrayList<>(Math.min(Math.max(limit, 0), 1024));
+        while (result.size() < limit && iterator.hasNext()) {
+            result.add(iterator.next());
+        }
+        return result;
+    }
+}
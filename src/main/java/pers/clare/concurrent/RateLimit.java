@@ -0,0 +1,67 @@
+package pers.clare.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tasks per second that each queue can start.
+ * <p>
+ * A token bucket kept as a single theoretical arrival time per queue (GCRA),
+ * so the state costs one long per key.
+ */
+@SuppressWarnings("unused")
+public class RateLimit {
+
+    /**
+     * Nanoseconds between permits.
+     */
+    private final long interval;
+
+    /**
+     * Nanoseconds a queue may run ahead of the rate.
+     */
+    private final long tolerance;
+
+    private final double permitsPerSecond;
+
+    private final int burst;
+
+    public RateLimit(double permitsPerSecond) {
+        this(permitsPerSecond, 1);
+    }
+
+    /**
+     * @param permitsPerSecond Tasks per second.
+     * @param burst            Tasks that can start at once after idle.
+     */
+    public RateLimit(double permitsPerSecond, int burst) {
+        if (!(permitsPerSecond > 0)) throw new IllegalArgumentException("permitsPerSecond must be greater than 0.");
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst > 0 ? burst : 1;
+        this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.tolerance = interval * (this.burst - 1);
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * @param tat Theoretical arrival time.
+     * @param now Current nanoTime.
+     * @return Nanoseconds until the next permit, 0 if a permit is available.
+     */
+    long delay(long tat, long now) {
+        return Math.max(0, tat - tolerance - now);
+    }
+
+    /**
+     * @return Theoretical arrival time after taking a permit.
+     */
+    long next(long tat, long now) {
+        return Math.max(tat, now) + interval;
+    }
+}
@@ -0,0 +1,205 @@
+package pers.clare.concurrent;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AffinityTests {
+
+    @Test
+    void preferred() {
+        int[] counts = new int[8];
+        for (int i = 0; i < 8000; i++) {
+            int bucket = AffinityExecutorService.preferred(Integer.hashCode(i), counts.length);
+            assertEquals(bucket, AffinityExecutorService.preferred(Integer.hashCode(i), counts.length));
+            counts[bucket]++;
+        }
+        for (int count : counts) {
+            assertTrue(count > 500);
+        }
+        // Growing from 8 to 9 threads only moves keys to the new thread.
+        for (int i = 0; i < 8000; i++) {
+            int before = AffinityExecutorService.preferred(i, 8);
+            int after = AffinityExecutorService.preferred(i, 9);
+            assertTrue(after == before || after == 8);
+        }
+    }
+
+    @Test
+    void sticky() throws InterruptedException {
+        FairExecutorService<Integer> executorService = new FairExecutorService<>(1, new AffinityExecutorService(4, Integer.MAX_VALUE, 0, TimeUnit.MILLISECONDS));
+        Map<Integer, Set<String>> threadMap = new ConcurrentHashMap<>();
+        int keyCount = 32;
+        int max = keyCount * 100;
+        CountDownLatch latch = new CountDownLatch(max);
+        for (int i = 0; i < max; i++) {
+            int key = i % keyCount;
+            executorService.execute(key, () -> {
+                threadMap.computeIfAbsent(key, (k) -> ConcurrentHashMap.newKeySet()).add(Thread.currentThread().getName());
+                latch.countDown();
+            });
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        executorService.shutdown();
+        assertTrue(executorService.awaitTermination(1, TimeUnit.SECONDS));
+        for (Set<String> threads : threadMap.values()) {
+            assertEquals(1, threads.size());
+        }
+    }
+
+    @Test
+    void spill() throws InterruptedException {
+        AffinityExecutorService affinity = new AffinityExecutorService(2, 1);
+        CountDownLatch block = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(4);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 4; i++) {
+            affinity.execute(1, () -> {
+                threads.add(Thread.currentThread().getName());
+                latch.countDown();
+                try {
+                    block.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        Thread.sleep(50);
+        block.countDown();
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        affinity.shutdown();
+        assertEquals(2, threads.size());
+    }
+
+    @Test
+    void slow() throws InterruptedException {
+        AffinityExecutorService affinity = new AffinityExecutorService(2, 16, 10, TimeUnit.MILLISECONDS);
+        int slowHash = 0;
+        int fastHash = 1;
+        while (AffinityExecutorService.preferred(fastHash, 2) != AffinityExecutorService.preferred(slowHash, 2)) {
+            fastHash++;
+        }
+        CountDownLatch block = new CountDownLatch(1);
+        affinity.execute(slowHash, () -> {
+            try {
+                block.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(50);
+        // The fast key shares the thread of the slow key, its tasks spill over to the idle thread.
+        CountDownLatch latch = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            affinity.execute(fastHash, latch::countDown);
+        }
+        try {
+            assertTrue(latch.await(1, TimeUnit.SECONDS));
+        } finally {
+            block.countDown();
+            affinity.shutdown();
+        }
+    }
+
+    @Test
+    void interrupted() throws InterruptedException {
+        AffinityExecutorService affinity = new AffinityExecutorService(1);
+        CountDownLatch latch = new CountDownLatch(1);
+        affinity.execute(1, () -> Thread.currentThread().interrupt());
+        affinity.execute(1, latch::countDown);
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        affinity.shutdown();
+        assertTrue(affinity.awaitTermination(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void shutdownRace() throws InterruptedException {
+        for (int round = 0; round < 20; round++) {
+            AffinityExecutorService affinity = new AffinityExecutorService(2);
+            assertEquals(0, lost(affinity));
+        }
+    }
+
+    /**
+     * Shut down while producers execute.
+     *
+     * @return Accepted tasks that never ran.
+     */
+    static int lost(ExecutorService executorService) throws InterruptedException {
+        AtomicInteger accepted = new AtomicInteger();
+        AtomicInteger ran = new AtomicInteger();
+        Thread[] producers = new Thread[4];
+        for (int i = 0; i < producers.length; i++) {
+            producers[i] = new Thread(() -> {
+                try {
+                    while (true) {
+                        executorService.execute(ran::incrementAndGet);
+                        accepted.incrementAndGet();
+                    }
+                } catch (RejectedExecutionException ignored) {
+                    // Shut down.
+                }
+            });
+            producers[i].start();
+        }
+        Thread.sleep(5);
+        executorService.shutdown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertTrue(executorService.awaitTermination(10, TimeUnit.SECONDS));
+        return accepted.get() - ran.get();
+    }
+
+    /**
+     * Tasks mutate the state of their key, compare a shared pool with the affinity pool.
+     */
+    @Tag("benchmark")
+    @Test
+    void benchmark() throws InterruptedException {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        for (int round = 0; round < 3; round++) {
+            long shared = run(new FairExecutorService<>(2, Executors.newFixedThreadPool(threads)));
+            long affinity = run(new FairExecutorService<>(2, new AffinityExecutorService(threads)));
+            System.out.printf("threads: %d, shared: %d ms, affinity: %d ms\n", threads, shared, affinity);
+        }
+    }
+
+    private long run(FairExecutorService<Integer> executorService) throws InterruptedException {
+        int keyCount = 64;
+        int taskCount = 500;
+        // 32 KB per key.
+        long[][] states = new long[keyCount][4096];
+        AtomicInteger count = new AtomicInteger();
+        int max = keyCount * taskCount;
+        CountDownLatch latch = new CountDownLatch(max);
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < max; i++) {
+            int key = i % keyCount;
+            executorService.execute(key, () -> {
+                long[] state = states[key];
+                synchronized (state) {
+                    for (int j = 0; j < state.length; j++) {
+                        state[j] += j;
+                    }
+                }
+                count.incrementAndGet();
+                latch.countDown();
+            });
+        }
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        long time = System.currentTimeMillis() - startTime;
+        executorService.shutdown();
+        assertEquals(max, count.get());
+        for (long[] state : states) {
+            assertEquals((long) taskCount * 4095, state[4095]);
+        }
+        return time;
+    }
+}
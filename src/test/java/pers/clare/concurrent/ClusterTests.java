@@ -0,0 +1,295 @@
+package pers.clare.concurrent;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClusterTests {
+
+    private static ClusterFairExecutorService<Integer> node(LocalClusterTransport.Network<Integer> network, String name, int batchSize) {
+        return node(network, name, batchSize, 5);
+    }
+
+    private static ClusterFairExecutorService<Integer> node(LocalClusterTransport.Network<Integer> network, String name, int batchSize, long linger) {
+        AtomicInteger number = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(2, (runnable) -> new Thread(runnable, name + "-" + number.incrementAndGet()));
+        return new ClusterFairExecutorService<>(new FairExecutorService<>(1, pool), new LocalClusterTransport<>(network, name), batchSize, linger);
+    }
+
+    private static String node() {
+        String name = Thread.currentThread().getName();
+        return name.substring(0, name.indexOf('-'));
+    }
+
+    static class Recorder {
+        private final Map<Integer, Set<String>> nodeMap = new ConcurrentHashMap<>();
+        private final Map<Integer, AtomicInteger> runningMap = new ConcurrentHashMap<>();
+        private final Map<Integer, AtomicInteger> sequenceMap = new ConcurrentHashMap<>();
+        private final Set<Integer> disorder = ConcurrentHashMap.newKeySet();
+        private final Set<Integer> overlap = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger count = new AtomicInteger();
+
+        Runnable task(int key, int sequence) {
+            return () -> {
+                nodeMap.computeIfAbsent(key, (k) -> ConcurrentHashMap.newKeySet()).add(node());
+                if (runningMap.computeIfAbsent(key, (k) -> new AtomicInteger()).incrementAndGet() > 1) {
+                    overlap.add(key);
+                }
+                int last = sequenceMap.computeIfAbsent(key, (k) -> new AtomicInteger(-1)).getAndSet(sequence);
+                if (last >= sequence) {
+                    disorder.add(key);
+                }
+                runningMap.get(key).decrementAndGet();
+                count.incrementAndGet();
+            };
+        }
+
+        void await(int max) throws InterruptedException {
+            long waitingTime = System.currentTimeMillis() + 10000;
+            while (count.get() < max && System.currentTimeMillis() < waitingTime) {
+                Thread.sleep(1);
+            }
+            assertEquals(max, count.get());
+        }
+    }
+
+    @Test
+    void owner() throws InterruptedException {
+        LocalClusterTransport.Network<Integer> network = new LocalClusterTransport.Network<>();
+        List<ClusterFairExecutorService<Integer>> nodes = List.of(node(network, "a", 16), node(network, "b", 16), node(network, "c", 16));
+        Recorder recorder = new Recorder();
+        int keyCount = 30;
+        int taskCount = 100;
+        for (int i = 0; i < taskCount; i++) {
+            for (int key = 0; key < keyCount; key++) {
+                nodes.get(0).execute(key, recorder.task(key, i));
+            }
+        }
+        recorder.await(keyCount * taskCount);
+        nodes.forEach(ExecutorService::shutdown);
+
+        Set<String> owners = ConcurrentHashMap.newKeySet();
+        for (int key = 0; key < keyCount; key++) {
+            String owner = nodes.get(0).getOwner(key);
+            owners.add(owner);
+            assertEquals(Set.of(owner), recorder.nodeMap.get(key));
+            for (ClusterFairExecutorService<Integer> node : nodes) {
+                assertEquals(owner, node.getOwner(key));
+            }
+        }
+        assertEquals(3, owners.size());
+        assertEquals(Set.of(), recorder.overlap);
+        assertEquals(Set.of(), recorder.disorder);
+    }
+
+    @Test
+    void rebalance() throws InterruptedException {
+        LocalClusterTransport.Network<Integer> network = new LocalClusterTransport.Network<>();
+        ClusterFairExecutorService<Integer> a = node(network, "a", 1);
+        Recorder recorder = new Recorder();
+        CountDownLatch latch = new CountDownLatch(1);
+        int keyCount = 20;
+        int taskCount = 50;
+        for (int key = 0; key < keyCount; key++) {
+            a.execute(key, () -> {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        for (int i = 0; i < taskCount; i++) {
+            for (int key = 0; key < keyCount; key++) {
+                a.execute(key, recorder.task(key, i));
+            }
+        }
+
+        // Backlog of the keys owned by b moves to b.
+        ClusterFairExecutorService<Integer> b = node(network, "b", 1);
+        int moved = 0;
+        for (int key = 0; key < keyCount; key++) {
+            if (b.isOwner(key)) {
+                moved++;
+                assertEquals(0, a.getExecutorService().size(key));
+            }
+        }
+        assertTrue(moved > 0);
+        latch.countDown();
+        recorder.await(keyCount * taskCount);
+        for (int key = 0; key < keyCount; key++) {
+            assertEquals(Set.of(a.getOwner(key)), recorder.nodeMap.get(key));
+        }
+        // The blocking task in flight on a is not recorded, so every recorded task of a moved key ran on b alone.
+        assertEquals(Set.of(), recorder.overlap);
+        assertEquals(Set.of(), recorder.disorder);
+
+        // Backlog of a leaving node moves to the remaining members.
+        CountDownLatch latch2 = new CountDownLatch(1);
+        for (int i = 1; i <= 2; i++) {
+            b.getExecutorService().execute(-i, () -> {
+                try {
+                    latch2.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        Recorder recorder2 = new Recorder();
+        Set<Integer> owned = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 2; i++) {
+            for (int key = 0; key < keyCount; key++) {
+                if (b.isOwner(key)) owned.add(key);
+                b.execute(key, recorder2.task(key, i));
+            }
+        }
+        ((LocalClusterTransport<Integer>) b.getTransport()).leave();
+        for (int key = 0; key < keyCount; key++) {
+            assertFalse(b.isOwner(key));
+        }
+        latch2.countDown();
+        recorder2.await(keyCount * 2);
+        // The first task of each key owned by b was already handed to the pool of b and still runs there,
+        // the second moved to a. Only these keys may overlap or run out of order, that is the documented exception.
+        for (int key = 0; key < keyCount; key++) {
+            if (owned.contains(key)) {
+                assertEquals(Set.of("a", "b"), recorder2.nodeMap.get(key));
+            } else {
+                assertEquals(Set.of("a"), recorder2.nodeMap.get(key));
+            }
+        }
+        assertTrue(owned.containsAll(recorder2.overlap));
+        assertTrue(owned.containsAll(recorder2.disorder));
+        a.shutdown();
+        b.shutdown();
+    }
+
+    @Test
+    void outbox() throws InterruptedException {
+        LocalClusterTransport.Network<Integer> network = new LocalClusterTransport.Network<>();
+        // Nothing is sent until flush.
+        ClusterFairExecutorService<Integer> a = node(network, "a", Integer.MAX_VALUE, 60000);
+        ClusterFairExecutorService<Integer> b = node(network, "b", 1);
+        ConsistentHash before = new ConsistentHash(Set.of("a", "b"), 128);
+        ConsistentHash after = new ConsistentHash(Set.of("a", "b", "c"), 128);
+        List<Integer> keys = new ArrayList<>();
+        for (int key = 0; keys.size() < 5; key++) {
+            if ("b".equals(before.get(key)) && "c".equals(after.get(key))) keys.add(key);
+        }
+        Recorder recorder = new Recorder();
+        for (int key : keys) {
+            a.execute(key, recorder.task(key, 0));
+        }
+        assertEquals(keys.size(), a.getForwarding());
+
+        // The waiting tasks follow the keys to c, before the tasks executed after the join.
+        ClusterFairExecutorService<Integer> c = node(network, "c", 1);
+        for (int key : keys) {
+            a.execute(key, recorder.task(key, 1));
+        }
+        a.flush();
+        recorder.await(keys.size() * 2);
+        for (int key : keys) {
+            assertEquals(Set.of("c"), recorder.nodeMap.get(key));
+            assertEquals(1, recorder.sequenceMap.get(key).get());
+        }
+        assertEquals(Set.of(), recorder.overlap);
+        assertEquals(Set.of(), recorder.disorder);
+        a.shutdown();
+        b.shutdown();
+        c.shutdown();
+    }
+
+    @Test
+    void churn() throws InterruptedException {
+        LocalClusterTransport.Network<Integer> network = new LocalClusterTransport.Network<>();
+        AtomicInteger misplaced = new AtomicInteger();
+        ClusterFairExecutorService<Integer> a = checked(network, "a", misplaced);
+        List<ClusterFairExecutorService<Integer>> nodes = new ArrayList<>();
+        int keyCount = 50;
+        int taskCount = 20000;
+        AtomicInteger count = new AtomicInteger();
+        Thread[] producers = new Thread[4];
+        for (int i = 0; i < producers.length; i++) {
+            producers[i] = new Thread(() -> {
+                for (int j = 0; j < taskCount; j++) {
+                    a.execute(j % keyCount, count::incrementAndGet);
+                }
+            });
+            producers[i].start();
+        }
+        // Members join and leave while the producers execute.
+        for (int round = 0; round < 20; round++) {
+            ClusterFairExecutorService<Integer> b = checked(network, "b", misplaced);
+            nodes.add(b);
+            Thread.sleep(2);
+            ((LocalClusterTransport<Integer>) b.getTransport()).leave();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        int max = producers.length * taskCount;
+        long waitingTime = System.currentTimeMillis() + 10000;
+        while (count.get() < max && System.currentTimeMillis() < waitingTime) {
+            Thread.sleep(1);
+        }
+        a.shutdown();
+        nodes.forEach(ExecutorService::shutdown);
+        assertEquals(max, count.get());
+        assertEquals(0, misplaced.get());
+    }
+
+    /**
+     * Count tasks put into a local key queue while the node does not own the key, before ownerLock is released.
+     */
+    private static ClusterFairExecutorService<Integer> checked(LocalClusterTransport.Network<Integer> network, String name, AtomicInteger misplaced) {
+        AtomicReference<ClusterFairExecutorService<Integer>> cluster = new AtomicReference<>();
+        AtomicInteger number = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(2, (runnable) -> new Thread(runnable, name + "-" + number.incrementAndGet()));
+        FairExecutorService<Integer> executorService = new FairExecutorService<>(1, pool) {
+            @Override
+            public void execute(Integer key, Runnable command) {
+                super.execute(key, command);
+                // Widen the window between reading the owner and enqueueing.
+                Thread.yield();
+                ClusterFairExecutorService<Integer> service = cluster.get();
+                if (key != null && service != null && !service.isOwner(key)) {
+                    misplaced.incrementAndGet();
+                }
+            }
+        };
+        cluster.set(new ClusterFairExecutorService<>(executorService, new LocalClusterTransport<>(network, name), 16, 5));
+        return cluster.get();
+    }
+
+    @Tag("benchmark")
+    @Test
+    void benchmark() throws InterruptedException {
+        for (int batchSize : new int[]{1, 64}) {
+            LocalClusterTransport.Network<Integer> network = new LocalClusterTransport.Network<>();
+            List<ClusterFairExecutorService<Integer>> nodes = List.of(node(network, "a", batchSize), node(network, "b", batchSize), node(network, "c", batchSize));
+            int max = 100000;
+            AtomicInteger count = new AtomicInteger();
+            long startTime = System.currentTimeMillis();
+            for (int i = 0; i < max; i++) {
+                nodes.get(i % 3).execute(i % 100, count::incrementAndGet);
+            }
+            long waitingTime = System.currentTimeMillis() + 10000;
+            while (count.get() < max && System.currentTimeMillis() < waitingTime) {
+                Thread.sleep(1);
+            }
+            System.out.printf("nodes: 3, batch size: %d, tasks: %d, time: %d ms\n", batchSize, max, System.currentTimeMillis() - startTime);
+            nodes.forEach(ExecutorService::shutdown);
+            assertEquals(max, count.get());
+        }
+    }
+}
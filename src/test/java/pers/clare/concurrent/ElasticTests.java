@@ -0,0 +1,115 @@
+package pers.clare.concurrent;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+
+class ElasticTests {
+
+    @Nested
+    @TestInstance(PER_CLASS)
+    class Elastic extends AbstractIntegerFairExecutorServiceTest {
+        @Override
+        FairExecutorService<Integer> buildExecutorService() {
+            return new FairExecutorService<>(1, 1, keyCount);
+        }
+    }
+
+    private void block(FairExecutorService<Integer> executorService, int keyCount, int taskCount, CountDownLatch latch) {
+        for (int i = 0; i < keyCount * taskCount; i++) {
+            executorService.execute(i % keyCount, () -> {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+    }
+
+    @Test
+    void grow() throws InterruptedException {
+        ElasticExecutorService elastic = new ElasticExecutorService(1, 8, 100, TimeUnit.MILLISECONDS);
+        FairExecutorService<Integer> executorService = new FairExecutorService<>(1, elastic);
+        CountDownLatch latch = new CountDownLatch(1);
+        block(executorService, 4, 10, latch);
+        Thread.sleep(50);
+        // One thread for each key in flight.
+        assertEquals(4, elastic.getPoolSize());
+        assertEquals(4, elastic.getDemand());
+
+        block(executorService, 20, 10, latch);
+        Thread.sleep(50);
+        assertEquals(8, elastic.getPoolSize());
+        assertEquals(20, elastic.getDemand());
+
+        latch.countDown();
+        long waitingTime = System.currentTimeMillis() + 5000;
+        while (elastic.getPoolSize() > 1 && System.currentTimeMillis() < waitingTime) {
+            Thread.sleep(10);
+        }
+        // Shrink after idle.
+        assertEquals(1, elastic.getPoolSize());
+        assertEquals(0, elastic.getDemand());
+        executorService.shutdown();
+    }
+
+    @Test
+    void shared() throws InterruptedException {
+        ElasticExecutorService elastic = new ElasticExecutorService(1, 8, 100, TimeUnit.MILLISECONDS);
+        FairExecutorService<Integer> a = new FairExecutorService<>(1, elastic);
+        FairExecutorService<Integer> b = new FairExecutorService<>(1, elastic);
+        CountDownLatch latch = new CountDownLatch(1);
+        block(a, 2, 10, latch);
+        block(b, 3, 10, latch);
+        Thread.sleep(50);
+        // Keys of both services in flight.
+        assertEquals(5, elastic.getPoolSize());
+        assertEquals(5, elastic.getDemand());
+        latch.countDown();
+        elastic.shutdown();
+        assertTrue(elastic.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void oneKey() throws InterruptedException {
+        FairExecutorService<Integer> executorService = new FairExecutorService<>(2, 1, 8);
+        CountDownLatch latch = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            executorService.execute(1, latch::countDown);
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        executorService.shutdown();
+        // A key never needs more threads than its concurrent.
+        assertTrue(((ElasticExecutorService) executorService.getExecutorService()).getLargestPoolSize() <= 2);
+    }
+
+    @Test
+    void standalone() throws InterruptedException {
+        ElasticExecutorService elastic = new ElasticExecutorService(0, 4, 100, TimeUnit.MILLISECONDS);
+        CountDownLatch latch = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            elastic.execute(() -> {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                done.countDown();
+            });
+        }
+        assertEquals(4, elastic.getPoolSize());
+        assertEquals(10, elastic.getDemand());
+        latch.countDown();
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        elastic.shutdown();
+        assertTrue(elastic.awaitTermination(1, TimeUnit.SECONDS));
+    }
+}
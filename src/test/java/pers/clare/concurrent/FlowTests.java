@@ -0,0 +1,189 @@
+package pers.clare.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlowTests {
+
+    static class TestSubscriber<R> implements Flow.Subscriber<R> {
+        private final Set<R> results = ConcurrentHashMap.newKeySet();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+        private final long request;
+        private final long sleep;
+        private Flow.Subscription subscription;
+
+        TestSubscriber(long request, long sleep) {
+            this.request = request;
+            this.sleep = sleep;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(request);
+        }
+
+        @Override
+        public void onNext(R item) {
+            results.add(item);
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            if (request != Long.MAX_VALUE) {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error.set(throwable);
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+
+    @Test
+    void process() throws InterruptedException {
+        FairExecutorService<Integer> executorService = new FairExecutorService<>();
+        FairProcessor<Integer, Integer, String> processor = new FairProcessor<>(executorService, (item) -> item % 10, String::valueOf, 16);
+        TestSubscriber<String> subscriber = new TestSubscriber<>(Long.MAX_VALUE, 0);
+        processor.subscribe(subscriber);
+        int max = 10000;
+        try (SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            for (int i = 0; i < max; i++) {
+                publisher.submit(i);
+            }
+        }
+        assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+        executorService.shutdown();
+        assertNull(subscriber.error.get());
+        assertEquals(max, subscriber.results.size());
+        assertEquals(0, processor.getOutstanding());
+    }
+
+    @Test
+    void backpressure() throws InterruptedException {
+        FairExecutorService<Integer> executorService = new FairExecutorService<>();
+        int capacity = 8;
+        AtomicInteger max = new AtomicInteger();
+        FairProcessor<Integer, Integer, Integer> processor = new FairProcessor<>(executorService, (item) -> item % 3, (item) -> item, capacity);
+        // A slow subscriber requesting one by one must not let buffered results grow past capacity.
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>(1, 1) {
+            @Override
+            public void onNext(Integer item) {
+                max.accumulateAndGet(processor.getOutstanding(), Math::max);
+                super.onNext(item);
+            }
+        };
+        processor.subscribe(subscriber);
+        int count = 200;
+        try (SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            for (int i = 0; i < count; i++) {
+                publisher.submit(i);
+            }
+        }
+        assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+        executorService.shutdown();
+        System.out.printf("capacity: %d, max outstanding: %d\n", capacity, max.get());
+        assertEquals(count, subscriber.results.size());
+        assertTrue(max.get() <= capacity);
+    }
+
+    @Test
+    void error() throws InterruptedException {
+        FairExecutorService<Integer> executorService = new FairExecutorService<>();
+        FairProcessor<Integer, Integer, Integer> processor = new FairProcessor<>(executorService, (item) -> item % 3, (item) -> {
+            if (item == 50) throw new IllegalStateException("test");
+            return item;
+        });
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>(Long.MAX_VALUE, 0);
+        processor.subscribe(subscriber);
+        try (SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            for (int i = 0; i < 100; i++) {
+                publisher.submit(i);
+            }
+        }
+        assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+        executorService.shutdown();
+        assertTrue(subscriber.error.get() instanceof IllegalStateException);
+    }
+
+    @Test
+    void errorBeforeSubscribe() throws InterruptedException {
+        FairExecutorService<Integer> executorService = new FairExecutorService<>();
+        FairProcessor<Integer, Integer, Integer> processor = new FairProcessor<>(executorService, (item) -> item, (item) -> item);
+        AtomicInteger cancelled = new AtomicInteger();
+        processor.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+                cancelled.incrementAndGet();
+            }
+        });
+        processor.onError(new IllegalStateException("test"));
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>(1, 0);
+        processor.subscribe(subscriber);
+        assertTrue(subscriber.done.await(1, TimeUnit.SECONDS));
+        assertTrue(subscriber.error.get() instanceof IllegalStateException);
+        assertEquals(0, cancelled.get());
+
+        // A processing failure before subscribe cancels upstream once and reaches the later subscriber.
+        processor = new FairProcessor<>(executorService, (item) -> item, (item) -> {
+            throw new IllegalStateException("test");
+        });
+        processor.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+                cancelled.incrementAndGet();
+            }
+        });
+        processor.onNext(1);
+        processor.onNext(2);
+        long waitingTime = System.currentTimeMillis() + 1000;
+        while (cancelled.get() == 0 && System.currentTimeMillis() < waitingTime) {
+            Thread.sleep(1);
+        }
+        subscriber = new TestSubscriber<>(1, 0);
+        processor.subscribe(subscriber);
+        assertTrue(subscriber.done.await(1, TimeUnit.SECONDS));
+        executorService.shutdown();
+        assertTrue(subscriber.error.get() instanceof IllegalStateException);
+        assertEquals(1, cancelled.get());
+    }
+
+    @Test
+    void subscribeTwice() {
+        FairExecutorService<Integer> executorService = new FairExecutorService<>();
+        FairProcessor<Integer, Integer, Integer> processor = new FairProcessor<>(executorService, (item) -> item, (item) -> item);
+        processor.subscribe(new TestSubscriber<>(1, 0));
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>(1, 0);
+        processor.subscribe(subscriber);
+        executorService.shutdown();
+        assertTrue(subscriber.error.get() instanceof IllegalStateException);
+    }
+}
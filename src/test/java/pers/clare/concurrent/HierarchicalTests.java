@@ -0,0 +1,113 @@
+package pers.clare.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HierarchicalTests {
+
+    /**
+     * tenant:user
+     */
+    private static String tenant(String key) {
+        return key.split(":")[0];
+    }
+
+    private static String user(String key) {
+        return key.split(":")[1];
+    }
+
+    private Map<String, Long> run(HierarchicalFairExecutorService<String> executorService, Map<String, Integer> taskCountMap) {
+        AtomicInteger count = new AtomicInteger();
+        Map<String, AtomicLong> timeMap = new ConcurrentHashMap<>();
+        int max = 0;
+        for (Map.Entry<String, Integer> entry : taskCountMap.entrySet()) {
+            timeMap.put(entry.getKey(), new AtomicLong());
+            max += entry.getValue();
+        }
+        long startTime = System.currentTimeMillis();
+        for (Map.Entry<String, Integer> entry : taskCountMap.entrySet()) {
+            String key = entry.getKey();
+            for (int i = 0; i < entry.getValue(); i++) {
+                executorService.execute(key, () -> {
+                    long waitingTime = System.currentTimeMillis() + 1;
+                    while (System.currentTimeMillis() < waitingTime) {
+                    }
+                    timeMap.get(key).set(System.currentTimeMillis() - startTime);
+                    count.incrementAndGet();
+                });
+            }
+        }
+        long waitingTime = System.currentTimeMillis() + 10000;
+        while (waitingTime > System.currentTimeMillis() && count.get() < max) {
+            Thread.onSpinWait();
+        }
+        executorService.shutdown();
+        assertEquals(max, count.get());
+
+        Map<String, Long> result = new ConcurrentHashMap<>();
+        for (Map.Entry<String, AtomicLong> entry : timeMap.entrySet()) {
+            System.out.printf("key: %s last task time: %d ms\n", entry.getKey(), entry.getValue().get());
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    @Test
+    void fair() {
+        HierarchicalFairExecutorService<String> executorService = new HierarchicalFairExecutorService<>(List.of(
+                new HierarchicalFairExecutorService.Level<>(HierarchicalTests::tenant, 1)
+                , new HierarchicalFairExecutorService.Level<>(HierarchicalTests::user, 1)
+        ), Executors.newFixedThreadPool(2));
+        Map<String, Long> timeMap = run(executorService, Map.of(
+                "a:heavy", 200
+                , "a:light", 10
+                , "b:light", 10
+        ));
+        assertTrue(timeMap.get("a:light") < timeMap.get("a:heavy"));
+        assertTrue(timeMap.get("b:light") < timeMap.get("a:heavy"));
+    }
+
+    @Test
+    void weight() {
+        HierarchicalFairExecutorService<String> executorService = new HierarchicalFairExecutorService<>(List.of(
+                new HierarchicalFairExecutorService.Level<>(HierarchicalTests::tenant, 1, (tenant) -> "a".equals(tenant) ? 3 : 1)
+                , new HierarchicalFairExecutorService.Level<>(HierarchicalTests::user, 3)
+        ), Executors.newFixedThreadPool(4));
+        Map<String, Long> timeMap = run(executorService, Map.of(
+                "a:1", 90
+                , "b:1", 90
+        ));
+        assertTrue(timeMap.get("a:1") < timeMap.get("b:1"));
+    }
+
+    @Test
+    void reset() {
+        HierarchicalFairExecutorService<String> executorService = new HierarchicalFairExecutorService<>(List.of(
+                new HierarchicalFairExecutorService.Level<>(HierarchicalTests::tenant, 1)
+                , new HierarchicalFairExecutorService.Level<>(HierarchicalTests::user, 1)
+        ));
+        assertEquals(0, executorService.size("a:1"));
+        for (int i = 0; i < 10; i++) {
+            executorService.execute("a:1", () -> {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        assertTrue(executorService.size("a:1") > 0);
+        int unexecuted = executorService.reset("a:1").length;
+        assertTrue(unexecuted > 0);
+        assertEquals(0, executorService.size("a:1"));
+        executorService.shutdown();
+    }
+}
@@ -0,0 +1,173 @@
+package pers.clare.concurrent;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LowLatencyTests {
+
+    @Test
+    void ringBuffer() {
+        MpmcRingBuffer<Integer> ringBuffer = new MpmcRingBuffer<>(3);
+        assertEquals(4, ringBuffer.capacity());
+        assertTrue(ringBuffer.isEmpty());
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(ringBuffer.offer(i));
+            }
+            assertFalse(ringBuffer.offer(4));
+            assertEquals(4, ringBuffer.size());
+            for (int i = 0; i < 4; i++) {
+                assertEquals(i, ringBuffer.poll());
+            }
+            assertNull(ringBuffer.poll());
+            assertTrue(ringBuffer.isEmpty());
+        }
+    }
+
+    @Test
+    void busySpin() throws InterruptedException {
+        run(IdleStrategy.busySpin());
+    }
+
+    @Test
+    void spinYieldPark() throws InterruptedException {
+        run(IdleStrategy.spinYieldPark());
+    }
+
+    @Test
+    void blocking() throws InterruptedException {
+        run(IdleStrategy.blocking());
+    }
+
+    private void run(IdleStrategy idleStrategy) throws InterruptedException {
+        // A small ring buffer also covers the overflow queue.
+        LowLatencyExecutorService lowLatency = new LowLatencyExecutorService(2, 16, idleStrategy);
+        FairExecutorService<Integer> executorService = new FairExecutorService<>(2, lowLatency);
+        int max = 20000;
+        AtomicInteger count = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(max);
+        for (int i = 0; i < max; i++) {
+            executorService.execute(i % 100, () -> {
+                count.incrementAndGet();
+                latch.countDown();
+            });
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        executorService.shutdown();
+        assertTrue(executorService.awaitTermination(1, TimeUnit.SECONDS));
+        assertEquals(max, count.get());
+        assertThrows(RejectedExecutionException.class, () -> lowLatency.execute(() -> {
+        }));
+    }
+
+    @Test
+    void overflowOrder() throws InterruptedException {
+        LowLatencyExecutorService lowLatency = new LowLatencyExecutorService(1, 2, IdleStrategy.blocking());
+        CountDownLatch block = new CountDownLatch(1);
+        List<String> order = new CopyOnWriteArrayList<>();
+        lowLatency.execute(() -> {
+            try {
+                block.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(20);
+        // b and c fill the ring buffer, d overflows, e is executed once b frees a slot.
+        lowLatency.execute(() -> {
+            order.add("b");
+            lowLatency.execute(() -> order.add("e"));
+        });
+        lowLatency.execute(() -> order.add("c"));
+        lowLatency.execute(() -> order.add("d"));
+        block.countDown();
+        lowLatency.shutdown();
+        assertTrue(lowLatency.awaitTermination(1, TimeUnit.SECONDS));
+        assertEquals(List.of("b", "c", "d", "e"), order);
+    }
+
+    @Test
+    void interrupted() throws InterruptedException {
+        LowLatencyExecutorService lowLatency = new LowLatencyExecutorService(1, IdleStrategy.blocking());
+        CountDownLatch latch = new CountDownLatch(1);
+        Thread[] worker = new Thread[1];
+        lowLatency.execute(() -> {
+            worker[0] = Thread.currentThread();
+            Thread.currentThread().interrupt();
+            latch.countDown();
+        });
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        // The worker parks again instead of spinning on the interrupt.
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Thread.sleep(20);
+        long cpuTime = threadMXBean.getThreadCpuTime(worker[0].getId());
+        Thread.sleep(200);
+        assertTrue(threadMXBean.getThreadCpuTime(worker[0].getId()) - cpuTime < TimeUnit.MILLISECONDS.toNanos(50));
+        CountDownLatch next = new CountDownLatch(1);
+        lowLatency.execute(next::countDown);
+        assertTrue(next.await(1, TimeUnit.SECONDS));
+        lowLatency.shutdown();
+    }
+
+    @Test
+    void shutdownRace() throws InterruptedException {
+        for (int round = 0; round < 20; round++) {
+            assertEquals(0, AffinityTests.lost(new LowLatencyExecutorService(2, 16, IdleStrategy.blocking())));
+        }
+    }
+
+    /**
+     * Latency from execute(key, ...) to the start of the task, one task at a time.
+     */
+    @Tag("benchmark")
+    @Test
+    void benchmark() {
+        int threads = 2;
+        for (int round = 0; round < 2; round++) {
+            print("fixed", latency(new FairExecutorService<>(Executors.newFixedThreadPool(threads))));
+            print("blocking", latency(new FairExecutorService<>(new LowLatencyExecutorService(threads, IdleStrategy.blocking()))));
+            print("spinYieldPark", latency(new FairExecutorService<>(new LowLatencyExecutorService(threads, IdleStrategy.spinYieldPark()))));
+        }
+    }
+
+    private long[] latency(FairExecutorService<Integer> executorService) {
+        int max = 20000;
+        long[] latencies = new long[max];
+        AtomicInteger done = new AtomicInteger();
+        for (int i = 0; i < max; i++) {
+            final int index = i;
+            long startTime = System.nanoTime();
+            executorService.execute(i % 10, () -> {
+                latencies[index] = System.nanoTime() - startTime;
+                done.incrementAndGet();
+            });
+            long waitingTime = System.currentTimeMillis() + 1000;
+            // Yield rather than spin, so spinning workers still get a core on small machines.
+            while (done.get() <= index && System.currentTimeMillis() < waitingTime) {
+                Thread.yield();
+            }
+        }
+        executorService.shutdown();
+        assertEquals(max, done.get());
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private void print(String name, long[] latencies) {
+        System.out.printf("%-14s p50: %6d ns, p99: %8d ns, p99.9: %9d ns\n"
+                , name
+                , latencies[latencies.length / 2]
+                , latencies[(int) (latencies.length * 0.99)]
+                , latencies[(int) (latencies.length * 0.999)]
+        );
+    }
+}
@@ -0,0 +1,70 @@
+package pers.clare.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimitTests {
+
+    @Test
+    void invalid() {
+        assertThrows(IllegalArgumentException.class, () -> new RateLimit(0));
+    }
+
+    @Test
+    void limit() {
+        int keyCount = 4;
+        int taskCount = 21;
+        int max = keyCount * taskCount;
+        // One worker proves that parked keys do not hold a thread.
+        FairExecutorService<Integer> executorService = new FairExecutorService<>(2, new RateLimit(100), Executors.newFixedThreadPool(1));
+        AtomicInteger count = new AtomicInteger();
+        Map<Integer, AtomicLong> timeMap = new ConcurrentHashMap<>();
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < max; i++) {
+            int id = i % keyCount;
+            timeMap.put(id, new AtomicLong());
+            executorService.execute(id, () -> {
+                timeMap.get(id).set(System.currentTimeMillis() - startTime);
+                count.incrementAndGet();
+            });
+        }
+
+        long waitingTime = System.currentTimeMillis() + 5000;
+        while (waitingTime > System.currentTimeMillis() && count.get() < max) {
+            Thread.onSpinWait();
+        }
+        executorService.shutdown();
+        assertEquals(max, count.get());
+
+        for (Map.Entry<Integer, AtomicLong> entry : timeMap.entrySet()) {
+            long time = entry.getValue().get();
+            System.out.printf("key: %d last task time: %d ms\n", entry.getKey(), time);
+            // 100 tasks per second for each key, independently of other keys.
+            assertTrue(time >= (taskCount - 1) * 10 - 10);
+            assertTrue(time < (taskCount - 1) * 10 * 3);
+        }
+    }
+
+    @Test
+    void burst() {
+        FairExecutorService<Integer> executorService = new FairExecutorService<>(5, new RateLimit(1, 5), null);
+        AtomicInteger count = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            executorService.execute(1, count::incrementAndGet);
+        }
+        long waitingTime = System.currentTimeMillis() + 200;
+        while (waitingTime > System.currentTimeMillis()) {
+            Thread.onSpinWait();
+        }
+        assertEquals(5, count.get());
+        assertEquals(5, executorService.size(1));
+        executorService.shutdownNow();
+    }
+}
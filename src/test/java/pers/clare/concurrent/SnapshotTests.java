@@ -0,0 +1,108 @@
+package pers.clare.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotTests {
+
+    private void put(FairExecutorService<Integer> executorService, int key, int count, CountDownLatch latch) {
+        for (int i = 0; i < count; i++) {
+            executorService.execute(key, () -> {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+    }
+
+    @Test
+    void top() throws InterruptedException {
+        int keyCount = 100;
+        FairExecutorService<Integer> executorService = new FairExecutorService<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            for (int i = 1; i <= keyCount; i++) {
+                put(executorService, i, i, latch);
+                Thread.sleep(1);
+            }
+
+            List<QueueState<Integer>> states = executorService.top(5, QueueState.bySize());
+            states.forEach(System.out::println);
+            assertEquals(5, states.size());
+            for (int i = 0; i < states.size(); i++) {
+                QueueState<Integer> state = states.get(i);
+                assertEquals(keyCount - i, state.getKey());
+                // One task of each key is in flight.
+                assertEquals(keyCount - i - 1, state.getSize());
+                assertEquals(1, state.getCurrent());
+            }
+
+            states = executorService.top(3, QueueState.byWaitTime());
+            states.forEach(System.out::println);
+            assertEquals(3, states.size());
+            assertEquals(2, states.get(0).getKey());
+            assertTrue(states.get(0).getWaitTime() >= states.get(1).getWaitTime());
+            assertTrue(states.get(1).getWaitTime() >= states.get(2).getWaitTime());
+        } finally {
+            latch.countDown();
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    void page() {
+        int keyCount = 1000;
+        FairExecutorService<Integer> executorService = new FairExecutorService<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < keyCount; i++) {
+                put(executorService, i, 2, latch);
+            }
+            Set<Integer> keys = new HashSet<>();
+            int limit = 64;
+            int offset = 0;
+            List<QueueState<Integer>> states;
+            do {
+                states = executorService.states(offset, limit);
+                for (QueueState<Integer> state : states) {
+                    if (state.getKey() == null) continue;
+                    assertTrue(keys.add(state.getKey()));
+                    assertEquals(1, state.getSize());
+                    assertEquals(1, state.getInFlight());
+                }
+                offset += limit;
+            } while (states.size() == limit);
+            // The default queue is included.
+            assertEquals(keyCount + 1, offset - limit + states.size());
+            assertEquals(keyCount, keys.size());
+
+            // A cursor resumes the same traversal.
+            keys.clear();
+            QueueStateCursor<Integer> cursor = executorService.cursor();
+            int count = 0;
+            while (cursor.hasNext()) {
+                states = cursor.next(limit);
+                assertTrue(states.size() <= limit);
+                for (QueueState<Integer> state : states) {
+                    count++;
+                    if (state.getKey() == null) continue;
+                    assertTrue(keys.add(state.getKey()));
+                }
+            }
+            assertEquals(keyCount + 1, count);
+            assertEquals(keyCount, keys.size());
+            assertTrue(cursor.next(limit).isEmpty());
+        } finally {
+            latch.countDown();
+            executorService.shutdown();
+        }
+    }
+}
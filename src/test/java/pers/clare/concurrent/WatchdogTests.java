@@ -0,0 +1,209 @@
+package pers.clare.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WatchdogTests {
+
+    static class RejectableExecutorService extends AbstractExecutorService {
+        private final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        private final AtomicBoolean reject = new AtomicBoolean();
+        private final Thread owner = Thread.currentThread();
+        /**
+         * Workers block in isShutdown, between finishing a task and draining the next one.
+         */
+        private volatile CountDownLatch gate;
+        private final CountDownLatch paused = new CountDownLatch(1);
+
+        @Override
+        public void shutdown() {
+            executorService.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return executorService.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            CountDownLatch gate = this.gate;
+            if (gate != null && Thread.currentThread() != owner) {
+                paused.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return executorService.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return executorService.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return executorService.awaitTermination(timeout, unit);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if (reject.get()) throw new RejectedExecutionException("test");
+            executorService.execute(command);
+        }
+    }
+
+    @Test
+    void waitTime() throws InterruptedException {
+        FairExecutorService<Integer> executorService = new FairExecutorService<>(1);
+        CountDownLatch latch = new CountDownLatch(1);
+        executorService.execute(1, () -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        executorService.execute(1, () -> {
+        });
+        Thread.sleep(60);
+        FairExecutorWatchdog<Integer> watchdog = new FairExecutorWatchdog<>(executorService, 50, null);
+        List<QueueState<Integer>> states = watchdog.check();
+        latch.countDown();
+        executorService.shutdown();
+
+        assertEquals(1, states.size());
+        QueueState<Integer> state = states.get(0);
+        System.out.println(state);
+        assertEquals(1, state.getKey());
+        assertEquals(1, state.getSize());
+        assertEquals(1, state.getInFlight());
+        assertTrue(state.getWaitTime() >= 50);
+        assertFalse(watchdog.isStalled(state));
+    }
+
+    @Test
+    void heal() throws InterruptedException {
+        RejectableExecutorService rejectable = new RejectableExecutorService();
+        FairExecutorService<Integer> executorService = new FairExecutorService<>(1, rejectable);
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger count = new AtomicInteger();
+        executorService.execute(1, () -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            rejectable.reject.set(true);
+        });
+        executorService.execute(1, count::incrementAndGet);
+        executorService.execute(1, count::incrementAndGet);
+        latch.countDown();
+
+        long waitingTime = System.currentTimeMillis() + 1000;
+        while (executorService.getQueue(1).size() > 1 && System.currentTimeMillis() < waitingTime) {
+            Thread.sleep(1);
+        }
+        rejectable.reject.set(false);
+        Thread.sleep(60);
+
+        FairExecutorWatchdog<Integer> watchdog = new FairExecutorWatchdog<>(executorService, 50, true, null);
+        List<QueueState<Integer>> states = watchdog.check();
+        assertEquals(1, states.size());
+        QueueState<Integer> state = states.get(0);
+        System.out.println(state);
+        assertTrue(state.isStranded());
+        assertTrue(watchdog.isStalled(state));
+
+        waitingTime = System.currentTimeMillis() + 1000;
+        while (count.get() < 1 && System.currentTimeMillis() < waitingTime) {
+            Thread.sleep(1);
+        }
+        executorService.shutdown();
+        assertEquals(1, count.get());
+        assertEquals(0, executorService.size(1));
+    }
+
+    @Test
+    void threshold() {
+        FairExecutorService<Integer> executorService = new FairExecutorService<>(1);
+        assertThrows(IllegalArgumentException.class, () -> new FairExecutorWatchdog<>(executorService, 0, true, null));
+        assertThrows(IllegalArgumentException.class, () -> new FairExecutorWatchdog<>(executorService, -1, null));
+        executorService.shutdown();
+    }
+
+    @Test
+    void start() throws InterruptedException {
+        FairExecutorService<Integer> executorService = new FairExecutorService<>(1);
+        CountDownLatch latch = new CountDownLatch(1);
+        CountDownLatch reported = new CountDownLatch(1);
+        executorService.execute(1, () -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        executorService.execute(1, () -> {
+        });
+        try (FairExecutorWatchdog<Integer> watchdog = new FairExecutorWatchdog<>(executorService, 20, (state) -> reported.countDown())) {
+            watchdog.start(10);
+            assertTrue(reported.await(1, TimeUnit.SECONDS));
+        } finally {
+            latch.countDown();
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    void finishing() throws InterruptedException {
+        RejectableExecutorService gated = new RejectableExecutorService();
+        gated.gate = new CountDownLatch(1);
+        FairExecutorService<Integer> executorService = new FairExecutorService<>(1, gated);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger overlap = new AtomicInteger();
+        AtomicInteger count = new AtomicInteger();
+        Runnable task = () -> {
+            if (running.incrementAndGet() > 1) overlap.incrementAndGet();
+            try {
+                Thread.sleep(60);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            running.decrementAndGet();
+            count.incrementAndGet();
+        };
+        for (int i = 0; i < 3; i++) {
+            executorService.execute(1, task);
+        }
+
+        // The long task has left inFlight and not drained the next task yet.
+        assertTrue(gated.paused.await(1, TimeUnit.SECONDS));
+        FairExecutorWatchdog<Integer> watchdog = new FairExecutorWatchdog<>(executorService, 50, true, null);
+        for (QueueState<Integer> state : watchdog.check()) {
+            System.out.println(state);
+            assertFalse(watchdog.isStalled(state));
+        }
+        assertEquals(1, executorService.getQueue(1).state(1, System.currentTimeMillis()).getCurrent());
+        gated.gate.countDown();
+
+        long waitingTime = System.currentTimeMillis() + 1000;
+        while (count.get() < 3 && System.currentTimeMillis() < waitingTime) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(10);
+        executorService.shutdown();
+        assertEquals(3, count.get());
+        assertEquals(0, overlap.get());
+        assertEquals(0, executorService.getQueue(1).state(1, System.currentTimeMillis()).getCurrent());
+    }
+}